@@ -20,6 +20,8 @@ package com.threewks.thundr.gae.objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.impl.translate.opt.joda.JodaTimeTranslators;
+import com.threewks.thundr.gae.objectify.repository.ReindexCheckpoint;
+import com.threewks.thundr.gae.objectify.repository.SearchIndexIntent;
 import com.threewks.thundr.injection.BaseModule;
 import com.threewks.thundr.injection.UpdatableInjectionContext;
 
@@ -36,5 +38,8 @@ public class ObjectifyModule extends BaseModule {
 	public static void runBasicConfiguration(ObjectifyFactory objectifyFactory) {
 		// register Objectify converter to convert between java.uil.Date and org.joda.time.DateTime
 		JodaTimeTranslators.add(objectifyFactory);
+		// register entities used by the repository
+		objectifyFactory.register(ReindexCheckpoint.class);
+		objectifyFactory.register(SearchIndexIntent.class);
 	}
 }
@@ -0,0 +1,245 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.atomicleopard.expressive.ETransformer;
+import com.googlecode.objectify.Result;
+import com.threewks.thundr.search.google.IndexOperation;
+
+/**
+ * Utility methods for creating and combining {@link AsyncResult}s.
+ */
+public class AsyncResults {
+	/**
+	 * Combines the given results into a single result. Completing the returned result completes every given result,
+	 * even if some of them fail. If exactly one fails, its exception is rethrown unchanged, so a bulk operation fails the same way as
+	 * the equivalent single operation. If more than one fails, a {@link RepositoryException} is thrown whose cause is the first failure,
+	 * with the remaining failures added as suppressed exceptions.
+	 * 
+	 * @param results
+	 * @return a result containing the value of each given result, in order
+	 */
+	public static <T> AsyncResult<List<T>> all(final List<? extends AsyncResult<? extends T>> results) {
+		return new AsyncResult<List<T>>() {
+			@Override
+			public List<T> complete() {
+				List<T> values = new ArrayList<T>(results.size());
+				List<RuntimeException> failures = new ArrayList<RuntimeException>();
+				for (AsyncResult<? extends T> result : results) {
+					try {
+						values.add(result.complete());
+					} catch (RuntimeException e) {
+						failures.add(e);
+						values.add(null);
+					}
+				}
+				if (failures.size() == 1) {
+					throw failures.get(0);
+				}
+				if (!failures.isEmpty()) {
+					RuntimeException first = failures.get(0);
+					RepositoryException exception = new RepositoryException(first, "%d of %d operations failed: %s", failures.size(), results.size(), first.getMessage());
+					for (RuntimeException failure : failures.subList(1, failures.size())) {
+						exception.addSuppressed(failure);
+					}
+					throw exception;
+				}
+				return values;
+			}
+		};
+	}
+
+	/**
+	 * Combines the given results into a single result.
+	 * 
+	 * @param results
+	 * @return a result containing the value of each given result, in order
+	 * @see #all(List)
+	 */
+	@SafeVarargs
+	public static <T> AsyncResult<List<T>> all(AsyncResult<? extends T>... results) {
+		return all(Arrays.asList(results));
+	}
+
+	/**
+	 * @param value
+	 * @return an {@link AsyncResult} which has already completed with the given value
+	 */
+	public static <T> AsyncResult<T> completed(final T value) {
+		return new AsyncResult<T>() {
+			@Override
+			public T complete() {
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Transforms the value of the given result when it is completed.
+	 * 
+	 * @param result
+	 * @param transformer
+	 * @return a result which completes the given result and returns its transformed value
+	 */
+	public static <F, T> AsyncResult<T> map(final AsyncResult<F> result, final ETransformer<? super F, T> transformer) {
+		return new AsyncResult<T>() {
+			@Override
+			public T complete() {
+				return transformer.from(result.complete());
+			}
+		};
+	}
+
+	/**
+	 * Chains a further asynchronous operation, started from the value of the given result once it completes.
+	 * The chained operation is only started once, however many times the returned result is completed.
+	 * 
+	 * @param result
+	 * @param next creates the following operation from the value of the given result
+	 * @return a result which completes the given result, then the operation started from its value
+	 */
+	public static <F, T> AsyncResult<T> then(final AsyncResult<F> result, final ETransformer<? super F, ? extends AsyncResult<T>> next) {
+		return new AsyncResult<T>() {
+			private AsyncResult<T> started;
+
+			@Override
+			public synchronized T complete() {
+				if (started == null) {
+					started = next.from(result.complete());
+				}
+				return started.complete();
+			}
+		};
+	}
+
+	/**
+	 * @param future
+	 * @return an {@link AsyncResult} which completes the given future, throwing a {@link RepositoryException} if the future failed
+	 */
+	public static <T> AsyncResult<T> from(final Future<T> future) {
+		return new AsyncResult<T>() {
+			@Override
+			public T complete() {
+				try {
+					return future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause() == null ? e : e.getCause();
+					throw new RepositoryException(cause, "Asynchronous operation failed: %s", cause.getMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RepositoryException(e, "Interrupted waiting for an asynchronous operation: %s", e.getMessage());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Adapts the given result to a {@link Future}, for use with apis which wait on futures. The result is completed on the
+	 * thread which first calls {@link Future#get()}, and failures are rethrown as an {@link ExecutionException}.
+	 * 
+	 * An {@link AsyncResult} can only be waited on, so {@link Future#isDone()} returns true once {@link Future#get()} has completed,
+	 * {@link Future#get(long, TimeUnit)} completes the result without a timeout, and the future cannot be cancelled.
+	 * 
+	 * @param result
+	 * @return a future which completes the given result
+	 */
+	public static <T> Future<T> toFuture(AsyncResult<T> result) {
+		return new AsyncResultFuture<T>(result);
+	}
+
+	private static class AsyncResultFuture<T> implements Future<T> {
+		private AsyncResult<T> result;
+		private volatile boolean done;
+		private T value;
+		private RuntimeException failure;
+
+		public AsyncResultFuture(AsyncResult<T> result) {
+			this.result = result;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done;
+		}
+
+		@Override
+		public synchronized T get() throws ExecutionException {
+			if (!done) {
+				try {
+					value = result.complete();
+				} catch (RuntimeException e) {
+					failure = e;
+				}
+				done = true;
+			}
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return value;
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws ExecutionException {
+			return get();
+		}
+	}
+
+	/**
+	 * @param result an objectify result
+	 * @return an {@link AsyncResult} which completes the given objectify result
+	 */
+	public static <T> AsyncResult<T> from(final Result<T> result) {
+		return new AsyncResult<T>() {
+			@Override
+			public T complete() {
+				return result.now();
+			}
+		};
+	}
+
+	/**
+	 * @param indexOperation a search index operation
+	 * @return an {@link AsyncResult} which completes the given index operation
+	 */
+	public static AsyncResult<Void> from(final IndexOperation indexOperation) {
+		return new AsyncResult<Void>() {
+			@Override
+			public Void complete() {
+				indexOperation.complete();
+				return null;
+			}
+		};
+	}
+}
@@ -19,27 +19,65 @@ package com.threewks.thundr.gae.objectify.repository;
 
 import static com.googlecode.objectify.ObjectifyService.ofy;
 
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import jodd.bean.BeanUtil;
 
 import com.atomicleopard.expressive.EList;
 import com.atomicleopard.expressive.ETransformer;
 import com.atomicleopard.expressive.Expressive;
 import com.atomicleopard.expressive.transform.CollectionTransformer;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.common.collect.Lists;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.cmd.Query;
 import com.threewks.thundr.exception.BaseException;
 import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.search.google.GoogleSearchService;
 import com.threewks.thundr.search.google.IndexOperation;
+import com.threewks.thundr.search.google.SearchRequest;
 import com.threewks.thundr.search.google.SearchResult;
 import com.threewks.thundr.search.google.SearchService;
 
 public class BaseRepository<E extends RepositoryEntity> implements Repository<E> {
+	public static final int DefaultIdBlockSize = 20;
+	/**
+	 * The maximum number of entities which can be put to or deleted from the datastore in a single request
+	 */
+	public static final int MaxDatastoreBatchSize = 500;
+	/**
+	 * The maximum number of entity groups which can be written in a single cross group transaction
+	 */
+	public static final int MaxTransactionEntityGroups = 5;
+	/**
+	 * The maximum number of values the datastore accepts in a single in filter
+	 */
+	public static final int MaxInFilterValues = 30;
+	/**
+	 * The number of {@link SearchIndexIntent}s applied by each {@link IndexOutboxTask}
+	 */
+	public static final int DefaultOutboxBatchSize = 100;
+
 	protected CollectionTransformer<E, Long> toIds;
 	protected ETransformer<E, Long> toId;
 	protected ETransformer<Collection<E>, Map<String, E>> stringIdLookup;
@@ -47,11 +85,19 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 	protected SearchService searchService;
 	protected Class<E> entityType;
 	protected List<String> fieldsToIndex;
+	protected IdAllocator<E> idAllocator;
+	protected IndexFingerprints<E> indexFingerprints;
+	protected boolean indexOutbox;
+	protected NearCache<E> nearCache;
+	protected MissingIdCache<E> missingIdCache;
+	protected EntityMemcache<E> searchResultCache;
+	protected RepositoryFactory<E> repositoryFactory;
 
 	public BaseRepository(Class<E> entityType, List<String> searchableFields, SearchService searchService) {
 		this.searchService = searchService;
 		this.entityType = entityType;
 		this.fieldsToIndex = searchableFields;
+		this.idAllocator = new IdAllocator<E>(entityType, DefaultIdBlockSize);
 		this.toId = Expressive.Transformers.toProperty("id", entityType);
 		this.toIds = Expressive.Transformers.transformAllUsing(toId);
 		this.idLookup = Expressive.Transformers.toKeyBeanLookup("id", entityType);
@@ -75,23 +121,38 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 
 	@Override
 	public AsyncResult<E> save(final E entity) {
-		Long initialId = entity.getId();
-		final Result<Key<E>> ofyFuture = ofy().save().entity(entity);
-		if (initialId == null) {
-			// if no id exists - we need objectify to complete so that the id can be used in indexing the record.
-			ofyFuture.now();
+		forgetMissing(Collections.singletonList(entity));
+		if (entity.getId() == null) {
+			// assign a reserved id so that the save does not have to complete before the entity can be indexed
+			assignId(entity, idAllocator.next());
 		}
-		final IndexOperation searchFuture = shouldSearch() ? searchService.index(entity, String.valueOf(entity.getId()), getFieldsToIndex()) : null;
-		return new AsyncResult<E>() {
+		List<Long> ids = Collections.singletonList(entity.getId());
+		invalidateCache(ids);
+		if (useIndexOutbox()) {
+			final AsyncResult<List<E>> saveWithIntents = saveWithIntents(Collections.singletonList(entity));
+			return invalidateCacheOnComplete(new AsyncResult<E>() {
+				@Override
+				public E complete() {
+					saveWithIntents.complete();
+					return entity;
+				}
+			}, ids);
+		}
+		final Result<Key<E>> ofyFuture = ofy().save().entity(entity);
+		final Map<Long, String> fingerprints = changedFingerprints(Collections.singletonList(entity));
+		boolean index = shouldSearch() && (fingerprints == null || !fingerprints.isEmpty());
+		final IndexOperation searchFuture = index ? searchService.index(entity, String.valueOf(entity.getId()), getFieldsToIndex()) : null;
+		return invalidateCacheOnComplete(new AsyncResult<E>() {
 			@Override
 			public E complete() {
 				ofyFuture.now();
 				if (searchFuture != null) {
 					searchFuture.complete();
+					recordFingerprints(fingerprints);
 				}
 				return entity;
 			}
-		};
+		}, ids);
 	}
 
 	@Override
@@ -100,42 +161,130 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 		return save(Arrays.asList(entities));
 	}
 
+	/**
+	 * Save the given entities. Entities are saved to the datastore in concurrent batches of {@link #MaxDatastoreBatchSize}, and indexed
+	 * in concurrent batches limited by the {@link SearchService}. Completing the returned result rethrows the failure if a single batch
+	 * failed, or throws a {@link RepositoryException} describing every batch which failed.
+	 * 
+	 * @param entities
+	 * @return an async result to complete the save operation
+	 */
 	@Override
 	public AsyncResult<List<E>> save(final List<E> entities) {
+		forgetMissing(entities);
+		assignIds(entities);
 		List<Long> ids = toIds.from(entities);
-		final Result<Map<Key<E>, E>> ofyFuture = ofy().save().entities(entities);
-		if (ids.contains(null)) {
-			ofyFuture.now(); // force sync save
+		invalidateCache(ids);
+		if (useIndexOutbox()) {
+			return invalidateCacheOnComplete(saveWithIntents(entities), ids);
 		}
-		Map<String, E> entityLookup = stringIdLookup.from(entities);
-		final IndexOperation searchFuture = shouldSearch() ? searchService.index(entityLookup, getFieldsToIndex()) : null;
-		return new AsyncResult<List<E>>() {
+		List<AsyncResult<?>> operations = new ArrayList<AsyncResult<?>>();
+		for (List<E> batch : Lists.partition(entities, MaxDatastoreBatchSize)) {
+			operations.add(AsyncResults.from(ofy().save().entities(batch)));
+		}
+		final Map<Long, String> fingerprints = changedFingerprints(entities);
+		if (shouldSearch()) {
+			Map<String, E> entityLookup = stringIdLookup.from(entities);
+			if (fingerprints != null) {
+				// only entities whose indexed fields have changed need to be indexed again
+				entityLookup.keySet().retainAll(Transformers.IdsToStrings.from(fingerprints.keySet()));
+			}
+			if (!entityLookup.isEmpty()) {
+				operations.add(AsyncResults.from(searchService.index(entityLookup, getFieldsToIndex())));
+			}
+		}
+		final AsyncResult<List<Object>> all = AsyncResults.<Object> all(operations);
+		return invalidateCacheOnComplete(new AsyncResult<List<E>>() {
 			@Override
 			public List<E> complete() {
-				ofyFuture.now();
-				if (searchFuture != null) {
-					searchFuture.complete();
-				}
+				all.complete();
+				recordFingerprints(fingerprints);
 				return entities;
 			}
-		};
+		}, ids);
 	}
 
 	@Override
 	public E load(Long id) {
-		return ofy().load().type(entityType).id(id).now();
+		return loadAsync(id).complete();
 	}
 
 	@Override
 	public List<E> load(List<Long> ids) {
-		Map<Long, E> results = ofy().load().type(entityType).ids(ids);
-		return Expressive.Transformers.transformAllUsing(Expressive.Transformers.usingLookup(results)).from(ids);
+		return loadAsync(ids).complete();
 	}
 
 	@Override
 	public List<E> load(Long... ids) {
-		Map<Long, E> results = ofy().load().type(entityType).ids(ids);
-		return Expressive.Transformers.transformAllUsing(Expressive.Transformers.usingLookup(results)).from(ids);
+		return loadAsync(Arrays.asList(ids)).complete();
+	}
+
+	@Override
+	public AsyncResult<E> loadAsync(final Long id) {
+		final AsyncResult<Map<Long, E>> results = loadLookupAsync(Collections.singletonList(id));
+		return new AsyncResult<E>() {
+			@Override
+			public E complete() {
+				return results.complete().get(id);
+			}
+		};
+	}
+
+	@Override
+	public AsyncResult<List<E>> loadAsync(final List<Long> ids) {
+		final AsyncResult<Map<Long, E>> results = loadLookupAsync(ids);
+		return new AsyncResult<List<E>>() {
+			@Override
+			public List<E> complete() {
+				return Expressive.Transformers.transformAllUsing(Expressive.Transformers.usingLookup(results.complete())).from(ids);
+			}
+		};
+	}
+
+	/**
+	 * Starts loading the entities with the given ids, reading from the {@link NearCache} first and skipping ids in the {@link MissingIdCache}
+	 * if either is set. Within a transaction both are bypassed, so entities are read from the datastore as part of the transaction.
+	 * 
+	 * @param ids
+	 * @return an async result which returns the entities which exist, keyed by id
+	 */
+	protected AsyncResult<Map<Long, E>> loadLookupAsync(Collection<Long> ids) {
+		boolean inTransaction = ofy().getTxn() != null;
+		final NearCache<E> nearCache = inTransaction ? null : this.nearCache;
+		final MissingIdCache<E> missingIdCache = inTransaction ? null : this.missingIdCache;
+		if (nearCache == null && missingIdCache == null) {
+			// objectify loads by id lazily, so the returned map is only waited on when it is read
+			return AsyncResults.completed(ofy().load().type(entityType).ids(ids));
+		}
+		final Long generation = nearCache == null ? null : nearCache.generation();
+		final Map<Long, E> cached = nearCache == null ? Collections.<Long, E> emptyMap() : nearCache.get(ids);
+		final Set<Long> misses = new LinkedHashSet<Long>(ids);
+		misses.removeAll(cached.keySet());
+		if (missingIdCache != null) {
+			misses.removeAll(missingIdCache.missing(misses));
+		}
+		final Map<Long, E> loaded = misses.isEmpty() ? Collections.<Long, E> emptyMap() : ofy().load().type(entityType).ids(misses);
+		return new AsyncResult<Map<Long, E>>() {
+			@Override
+			public Map<Long, E> complete() {
+				if (nearCache != null) {
+					nearCache.put(loaded.values(), generation);
+				}
+				if (missingIdCache != null) {
+					Set<Long> absent = new LinkedHashSet<Long>(misses);
+					absent.removeAll(loaded.keySet());
+					missingIdCache.record(absent);
+				}
+				Map<Long, E> results = new LinkedHashMap<Long, E>(cached);
+				results.putAll(loaded);
+				return results;
+			}
+		};
+	}
+
+	@Override
+	public BatchLoader<E> loader() {
+		return new BatchLoader<E>(this);
 	}
 
 	@Override
@@ -143,14 +292,112 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 		return ofy().load().type(entityType).limit(count).list();
 	}
 
+	@Override
+	public List<Long> listIds(int count) {
+		return keyIds(ofy().load().type(entityType).limit(count).keys().list());
+	}
+
 	@Override
 	public List<E> loadByField(String field, Object value) {
-		return ofy().load().type(entityType).filter(field, value).list();
+		return loadByFieldAsync(field, value).complete();
+	}
+
+	@Override
+	public List<Long> loadIdsByField(String field, Object value) {
+		return keyIds(ofy().load().type(entityType).filter(field, value).keys().list());
+	}
+
+	@Override
+	public List<Long> loadIdsByField(String field, List<Object> values) {
+		List<List<Key<E>>> queries = new ArrayList<List<Key<E>>>();
+		for (List<Object> batch : inFilterBatches(values)) {
+			queries.add(ofy().load().type(entityType).filter(field + " in", batch).keys().list());
+		}
+		Set<Long> ids = new LinkedHashSet<Long>();
+		for (List<Key<E>> keys : queries) {
+			ids.addAll(keyIds(keys));
+		}
+		return new ArrayList<Long>(ids);
+	}
+
+	/**
+	 * Determines which of the given ids exist using keys only queries, which are run concurrently for each {@link #MaxInFilterValues} ids.
+	 * Like all queries, keys only queries are eventually consistent, so entities saved or deleted very recently may not be reflected.
+	 * 
+	 * @param ids
+	 * @return a list containing an entry for each corresponding id, which is true if the entity exists
+	 */
+	@Override
+	public List<Boolean> exists(List<Long> ids) {
+		List<List<Key<E>>> queries = new ArrayList<List<Key<E>>>();
+		for (List<Long> batch : Lists.partition(new ArrayList<Long>(new LinkedHashSet<Long>(ids)), MaxInFilterValues)) {
+			List<Key<E>> keys = new ArrayList<Key<E>>(batch.size());
+			for (Long id : batch) {
+				keys.add(Key.create(entityType, id));
+			}
+			// objectify starts each query immediately, so the queries run concurrently
+			queries.add(ofy().load().type(entityType).filterKey("in", keys).keys().list());
+		}
+		Set<Long> existing = new HashSet<Long>();
+		for (List<Key<E>> keys : queries) {
+			existing.addAll(keyIds(keys));
+		}
+		List<Boolean> results = new ArrayList<Boolean>(ids.size());
+		for (Long id : ids) {
+			results.add(existing.contains(id));
+		}
+		return results;
 	}
 
 	@Override
 	public List<E> loadByField(String field, List<Object> values) {
-		return ofy().load().type(entityType).filter(field + " in", values).list();
+		return loadByFieldAsync(field, values).complete();
+	}
+
+	@Override
+	public AsyncResult<List<E>> loadByFieldAsync(String field, Object value) {
+		final List<E> results = ofy().load().type(entityType).filter(field, value).list();
+		return new AsyncResult<List<E>>() {
+			@Override
+			public List<E> complete() {
+				return new ArrayList<E>(results);
+			}
+		};
+	}
+
+	/**
+	 * The datastore limits the number of values in an in filter, so larger sets of values are split into concurrent queries
+	 * of at most {@link #MaxInFilterValues} values each, whose results are merged and deduplicated by id.
+	 */
+	@Override
+	public AsyncResult<List<E>> loadByFieldAsync(String field, List<Object> values) {
+		final List<List<E>> queries = new ArrayList<List<E>>();
+		for (List<Object> batch : inFilterBatches(values)) {
+			queries.add(ofy().load().type(entityType).filter(field + " in", batch).list());
+		}
+		return new AsyncResult<List<E>>() {
+			@Override
+			public List<E> complete() {
+				if (queries.size() == 1) {
+					return new ArrayList<E>(queries.get(0));
+				}
+				Map<Long, E> results = new LinkedHashMap<Long, E>();
+				for (List<E> query : queries) {
+					for (E entity : query) {
+						results.put(entity.getId(), entity);
+					}
+				}
+				return new ArrayList<E>(results.values());
+			}
+		};
+	}
+
+	/**
+	 * @param values
+	 * @return the distinct values, split into batches which fit in a single in filter
+	 */
+	protected List<List<Object>> inFilterBatches(List<Object> values) {
+		return Lists.partition(new ArrayList<Object>(new LinkedHashSet<Object>(values)), MaxInFilterValues);
 	}
 
 	@Override
@@ -163,13 +410,84 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 
 	@Override
 	public List<E> completeSearch(Search<E> search) {
-		List<Long> articleIds = completeIdSearch(search);
-		return load(articleIds);
+		return completeSearchAsync(search).complete();
 	}
 
 	@Override
 	public List<Long> completeIdSearch(Search<E> search) {
-		SearchResult<E> results = search.searchRequest.search();
+		return completeIdSearchAsync(search).complete();
+	}
+
+	@Override
+	public SearchPage<E> completeSearchPage(Search<E> search) {
+		// page a copy, so the caller's search is left as it was given
+		SearchRequest<E> searchRequest = search.searchRequest.copy();
+		if (!searchRequest.isCursorPaging()) {
+			searchRequest.cursor(null);
+		}
+		SearchResult<E> results = searchRequest.searchIds();
+		List<E> entities = new ArrayList<E>(hydrateAsync(searchResultIds(results)).complete());
+		entities.removeAll(Collections.singleton(null));
+		return new SearchPage<E>(entities, results.cursor(), results.getMatchingRecordCount());
+	}
+
+	@Override
+	public Iterator<E> completeSearchStream(Search<E> search) {
+		return new SearchIterator<E>(this, search.searchRequest.streamIds());
+	}
+
+	@Override
+	public AsyncResult<List<E>> completeSearchAsync(Search<E> search) {
+		AsyncResult<List<Long>> idSearch = completeIdSearchAsync(search);
+		return AsyncResults.then(idSearch, new ETransformer<List<Long>, AsyncResult<List<E>>>() {
+			@Override
+			public AsyncResult<List<E>> from(List<Long> ids) {
+				return hydrateAsync(ids);
+			}
+		});
+	}
+
+	/**
+	 * Starts loading the entities with the given search result ids. If a search result cache is set, entities are read from memcache first,
+	 * and only those which are not cached are loaded from the datastore, then added to the cache without waiting.
+	 * 
+	 * @param ids
+	 * @return an async result which returns a list containing an entry for each corresponding id, containing the entity or null if none exists
+	 */
+	protected AsyncResult<List<E>> hydrateAsync(final List<Long> ids) {
+		if (searchResultCache == null) {
+			return loadAsync(ids);
+		}
+		final Map<Long, E> cached = searchResultCache.get(ids);
+		List<Long> misses = new ArrayList<Long>(ids);
+		misses.removeAll(cached.keySet());
+		final AsyncResult<Map<Long, E>> loaded = misses.isEmpty() ? AsyncResults.completed(Collections.<Long, E> emptyMap()) : loadLookupAsync(misses);
+		return new AsyncResult<List<E>>() {
+			@Override
+			public List<E> complete() {
+				Map<Long, E> loadedLookup = loaded.complete();
+				if (!loadedLookup.isEmpty()) {
+					searchResultCache.putAsync(loadedLookup.values());
+				}
+				Map<Long, E> results = new LinkedHashMap<Long, E>(cached);
+				results.putAll(loadedLookup);
+				return Expressive.Transformers.transformAllUsing(Expressive.Transformers.usingLookup(results)).from(ids);
+			}
+		};
+	}
+
+	@Override
+	public AsyncResult<List<Long>> completeIdSearchAsync(Search<E> search) {
+		final SearchResult<E> results = search.searchRequest.searchIds();
+		return new AsyncResult<List<Long>>() {
+			@Override
+			public List<Long> complete() {
+				return searchResultIds(results);
+			}
+		};
+	}
+
+	protected List<Long> searchResultIds(SearchResult<E> results) {
 		EList<Long> articleIds = Transformers.IdsFromStrings.from(results.getSearchResultIds());
 		articleIds = articleIds.removeItems((Long) null);
 		return articleIds;
@@ -178,9 +496,15 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 	@Override
 	public AsyncResult<Void> delete(long id) {
 		String stringId = Transformers.IdToString.from(id);
+		List<Long> ids = Collections.singletonList(id);
+		clearFingerprints(ids);
+		invalidateCache(ids);
+		if (useIndexOutbox()) {
+			return invalidateCacheOnComplete(deleteWithIntents(ids), ids);
+		}
 		final Result<Void> ofyDelete = ofy().delete().type(entityType).id(id);
 		final IndexOperation searchDelete = shouldSearch() ? searchService.remove(entityType, Collections.singleton(stringId)) : null;
-		return new AsyncResult<Void>() {
+		return invalidateCacheOnComplete(new AsyncResult<Void>() {
 			@Override
 			public Void complete() {
 				ofyDelete.now();
@@ -189,7 +513,7 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 				}
 				return null;
 			}
-		};
+		}, ids);
 	}
 
 	@Override
@@ -202,22 +526,37 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 		return delete(Arrays.asList(ids));
 	}
 
+	/**
+	 * Delete the entities with the given ids. Entities are deleted from the datastore in concurrent batches of {@link #MaxDatastoreBatchSize},
+	 * and removed from the index in concurrent batches limited by the {@link SearchService}. Completing the returned result rethrows the
+	 * failure if a single batch failed, or throws a {@link RepositoryException} describing every batch which failed.
+	 * 
+	 * @param ids
+	 * @return an async operation used to complete the delete operation
+	 */
 	@Override
 	public AsyncResult<Void> delete(List<Long> ids) {
-		List<String> stringIds = Transformers.IdsToStrings.from(ids);
-		final Result<Void> ofyDelete = ofy().delete().type(entityType).ids(ids);
-
-		final IndexOperation searchDelete = shouldSearch() ? searchService.remove(entityType, stringIds) : null;
-		return new AsyncResult<Void>() {
+		clearFingerprints(ids);
+		invalidateCache(ids);
+		if (useIndexOutbox()) {
+			return invalidateCacheOnComplete(deleteWithIntents(ids), ids);
+		}
+		List<AsyncResult<?>> operations = new ArrayList<AsyncResult<?>>();
+		for (List<Long> batch : Lists.partition(ids, MaxDatastoreBatchSize)) {
+			operations.add(AsyncResults.from(ofy().delete().type(entityType).ids(batch)));
+		}
+		if (shouldSearch()) {
+			List<String> stringIds = Transformers.IdsToStrings.from(ids);
+			operations.add(AsyncResults.from(searchService.remove(entityType, stringIds)));
+		}
+		final AsyncResult<List<Object>> all = AsyncResults.<Object> all(operations);
+		return invalidateCacheOnComplete(new AsyncResult<Void>() {
 			@Override
 			public Void complete() {
-				ofyDelete.now();
-				if (searchDelete != null) {
-					searchDelete.complete();
-				}
+				all.complete();
 				return null;
 			}
-		};
+		}, ids);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -230,6 +569,10 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 	/**
 	 * Reindexes all the entities matching the given search operation. The given {@link ReindexOperation}, if present will be applied to each batch of entities.
 	 * 
+	 * The search is paged through using search cursors a batch at a time, so only a single batch of ids and entities is held in memory
+	 * at any time, regardless of the number of matching entities. Every matching entity is reindexed, regardless of any limit, offset
+	 * or cursor applied to the search.
+	 * 
 	 * @param search
 	 * @param batchSize
 	 * @param reindexOperation
@@ -237,26 +580,703 @@ public class BaseRepository<E extends RepositoryEntity> implements Repository<E>
 	 */
 	@Override
 	public int reindex(Search<E> search, int batchSize, ReindexOperation<E> reindexOperation) {
-		List<String> fieldsToIndex = getFieldsToIndex();
+		return reindex(search, batchSize, 1, reindexOperation);
+	}
+
+	/**
+	 * Reindexes all the entities matching the given search operation, allowing the save and index of up to maxInFlight batches
+	 * to proceed while the next batch is loaded.
+	 * 
+	 * The search is paged through in pages of batchSize ids, or {@link GoogleSearchService#MaxResultsPerSearch} if the batch size is larger,
+	 * and pages are combined into batches of batchSize entities.
+	 * 
+	 * @param search
+	 * @param batchSize
+	 * @param maxInFlight the maximum number of batches being saved and indexed at any time, 1 reindexes each batch in turn
+	 * @param reindexOperation
+	 * @return the overall count of re-indexed entities.
+	 */
+	@Override
+	public int reindex(Search<E> search, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation) {
 		int count = 0;
-		List<E> results = completeSearch(search);
-		List<List<E>> batches = Lists.partition(results, batchSize);
-		for (List<E> batch : batches) {
-			batch = reindexOperation == null ? batch : reindexOperation.apply(batch);
-			Map<String, E> keyedLookup = stringIdLookup.from(batch);
-			if (reindexOperation != null) {
-				// we only re-save the batch when a re-index op is supplied, otherwise the data can't have changed.
-				ofy().save().entities(batch).now();
+		Deque<AsyncResult<Integer>> inFlight = new ArrayDeque<AsyncResult<Integer>>(maxInFlight);
+		int pageSize = Math.min(batchSize, GoogleSearchService.MaxResultsPerSearch);
+		// the search for the following page is started as each page is returned, so it runs while the current batch is loaded
+		Iterator<SearchResult<E>> pages = search.searchRequest.copy().limit(pageSize).cursor(null).streamIds();
+		List<Long> ids = new ArrayList<Long>(batchSize);
+		while (pages.hasNext()) {
+			ids.addAll(searchResultIds(pages.next()));
+			while (ids.size() >= batchSize || (!ids.isEmpty() && !pages.hasNext())) {
+				List<Long> batchIds = ids.subList(0, Math.min(batchSize, ids.size()));
+				count += awaitInFlight(inFlight, maxInFlight - 1, count);
+				ofy().clear();
+				List<E> batch = new ArrayList<E>(load(new ArrayList<Long>(batchIds)));
+				batch.removeAll(Collections.singleton(null));
+				inFlight.add(reindexBatch(batch, reindexOperation));
+				batchIds.clear();
 			}
-			if (shouldSearch()) {
-				searchService.index(keyedLookup, fieldsToIndex).complete();
+		}
+		count += awaitInFlight(inFlight, 0, count);
+		return count;
+	}
+
+	/**
+	 * Reindexes all entities of this repository's type, paging through the datastore using query cursors. The given {@link ReindexOperation}, if present will be applied to each batch of entities.
+	 * 
+	 * Only a single batch of entities is held in memory at any time, regardless of the number of entities stored.
+	 * 
+	 * @param batchSize
+	 * @param reindexOperation
+	 * @return the overall count of re-indexed entities.
+	 */
+	@Override
+	public int reindex(int batchSize, ReindexOperation<E> reindexOperation) {
+		return reindex(batchSize, 1, reindexOperation);
+	}
+
+	/**
+	 * Reindexes all entities of this repository's type, allowing the save and index of up to maxInFlight batches
+	 * to proceed while the next batch is loaded. At most maxInFlight + 1 batches are held in memory.
+	 * 
+	 * @param batchSize
+	 * @param maxInFlight the maximum number of batches being saved and indexed at any time, 1 reindexes each batch in turn
+	 * @param reindexOperation
+	 * @return the overall count of re-indexed entities.
+	 */
+	@Override
+	public int reindex(int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation) {
+		ReindexCheckpoint checkpoint = reindex(new ReindexCheckpoint(null, entityType), ofy().load().type(entityType), batchSize, maxInFlight, reindexOperation);
+		return (int) checkpoint.getProcessed();
+	}
+
+	/**
+	 * Runs a named reindex job over all entities of this repository's type. A {@link ReindexCheckpoint} is saved after each batch
+	 * completes, so if the job is interrupted, invoking this method again with the same job id resumes from the last completed batch.
+	 * Once a job is complete, invoking it again has no effect.
+	 * 
+	 * @param jobId a unique name for the reindex job
+	 * @param batchSize
+	 * @param maxInFlight the maximum number of batches being saved and indexed at any time, 1 reindexes each batch in turn
+	 * @param reindexOperation
+	 * @return the final checkpoint of the job
+	 */
+	@Override
+	public ReindexCheckpoint reindex(String jobId, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation) {
+		return reindex(jobId, ofy().load().type(entityType), batchSize, maxInFlight, reindexOperation);
+	}
+
+	/**
+	 * Reindexes all entities of this repository's type by splitting the id space into the given number of shards, and enqueuing
+	 * a {@link ReindexTask} for each shard on the {@link #reindexQueue()}. Each shard runs as a resumable reindex job, whose id
+	 * is the given job id suffixed with the shard number, so a shard task which is retried resumes from its last completed batch.
+	 * 
+	 * The given {@link ReindexOperation} is serialized with the task, so must be {@link Serializable} if present.
+	 * 
+	 * @param jobId a unique name for the reindex job
+	 * @param shards the number of shards to split the reindex into
+	 * @param batchSize
+	 * @param reindexOperation
+	 * @return the job ids of each shard, which can be used to load the {@link ReindexCheckpoint} of each shard
+	 */
+	@Override
+	public List<String> reindexInShards(String jobId, int shards, int batchSize, ReindexOperation<E> reindexOperation) {
+		if (reindexOperation != null && !(reindexOperation instanceof Serializable)) {
+			throw new BaseException("Unable to reindex type %s in shards - the %s %s is not serializable", entityType.getSimpleName(), ReindexOperation.class.getSimpleName(), reindexOperation.getClass()
+					.getName());
+		}
+		List<ReindexTask<E>> tasks = createReindexTasks(jobId, shards, batchSize, reindexOperation);
+		List<TaskOptions> taskOptions = new ArrayList<TaskOptions>(tasks.size());
+		List<String> shardJobIds = new ArrayList<String>(tasks.size());
+		for (ReindexTask<E> task : tasks) {
+			taskOptions.add(TaskOptions.Builder.withPayload(task));
+			shardJobIds.add(task.getJobId());
+		}
+		Queue queue = reindexQueue();
+		for (List<TaskOptions> taskBatch : Lists.partition(taskOptions, QueueConstants.maxTasksPerAdd())) {
+			queue.add(taskBatch);
+		}
+		Logger.info("Enqueued %d shards for reindex job %s on type %s", tasks.size(), jobId, entityType.getSimpleName());
+		return shardJobIds;
+	}
+
+	/**
+	 * Runs a single shard of a reindex job, reindexing entities with ids in the given range.
+	 * 
+	 * @param jobId the id of the shard
+	 * @param fromId the inclusive lower bound of ids to reindex, or null for no lower bound
+	 * @param toId the exclusive upper bound of ids to reindex, or null for no upper bound
+	 * @param batchSize
+	 * @param maxInFlight
+	 * @param reindexOperation
+	 * @return the final checkpoint of the shard
+	 */
+	public ReindexCheckpoint reindexShard(String jobId, Long fromId, Long toId, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation) {
+		Query<E> query = ofy().load().type(entityType);
+		if (fromId != null) {
+			query = query.filterKey(">=", Key.create(entityType, fromId));
+		}
+		if (toId != null) {
+			query = query.filterKey("<", Key.create(entityType, toId));
+		}
+		return reindex(jobId, query, batchSize, maxInFlight, reindexOperation);
+	}
+
+	/**
+	 * Creates a {@link ReindexTask} for each key range shard of this repository's type. The lowest and highest shards are unbounded
+	 * so that entities created after the shards are calculated are still reindexed.
+	 * 
+	 * @param jobId
+	 * @param shards
+	 * @param batchSize
+	 * @param reindexOperation
+	 * @return the tasks, or an empty list if there are no entities to reindex
+	 */
+	protected List<ReindexTask<E>> createReindexTasks(String jobId, int shards, int batchSize, ReindexOperation<E> reindexOperation) {
+		List<Key<E>> first = ofy().load().type(entityType).order("__key__").limit(1).keys().list();
+		List<Key<E>> last = ofy().load().type(entityType).order("-__key__").limit(1).keys().list();
+		if (first.isEmpty() || last.isEmpty()) {
+			return Collections.emptyList();
+		}
+		long min = first.get(0).getId();
+		long max = last.get(0).getId();
+		shards = (int) Math.max(1, Math.min(shards, max - min + 1));
+		long width = (max - min) / shards + 1;
+
+		List<ReindexTask<E>> tasks = new ArrayList<ReindexTask<E>>(shards);
+		for (int shard = 0; shard < shards; shard++) {
+			Long fromId = shard == 0 ? null : min + shard * width;
+			Long toId = shard == shards - 1 ? null : min + (shard + 1) * width;
+			tasks.add(newReindexTask(jobId + "-" + shard, fromId, toId, batchSize, reindexOperation));
+		}
+		return tasks;
+	}
+
+	/**
+	 * Creates the task which reindexes a single shard of a reindex job.
+	 * 
+	 * @param jobId the id of the shard
+	 * @param fromId the inclusive lower bound of ids to reindex, or null for no lower bound
+	 * @param toId the exclusive upper bound of ids to reindex, or null for no upper bound
+	 * @param batchSize
+	 * @param reindexOperation
+	 * @return
+	 */
+	protected ReindexTask<E> newReindexTask(String jobId, Long fromId, Long toId, int batchSize, ReindexOperation<E> reindexOperation) {
+		return new ReindexTask<E>(repositoryFactory(), jobId, fromId, toId, batchSize, reindexOperation);
+	}
+
+	/**
+	 * @return the queue sharded reindex tasks are added to, by default the default queue
+	 */
+	protected Queue reindexQueue() {
+		return QueueFactory.getDefaultQueue();
+	}
+
+	/**
+	 * Runs a named reindex job over the entities returned by the given query, resuming from the job's checkpoint if present.
+	 * 
+	 * @param jobId
+	 * @param query
+	 * @param batchSize
+	 * @param maxInFlight
+	 * @param reindexOperation
+	 * @return the final checkpoint of the job
+	 */
+	protected ReindexCheckpoint reindex(String jobId, Query<E> query, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation) {
+		ReindexCheckpoint checkpoint = ofy().load().type(ReindexCheckpoint.class).id(jobId).now();
+		if (checkpoint == null) {
+			checkpoint = new ReindexCheckpoint(jobId, entityType);
+		} else if (!entityType.getName().equals(checkpoint.getEntityType())) {
+			throw new BaseException("Unable to resume reindex job %s on type %s - the job is reindexing %s", jobId, entityType.getSimpleName(), checkpoint.getEntityType());
+		} else if (checkpoint.isComplete()) {
+			Logger.info("Reindex job %s on type %s has already completed, %d entities were reindexed", jobId, entityType.getSimpleName(), checkpoint.getProcessed());
+			return checkpoint;
+		} else {
+			Logger.info("Resuming reindex job %s on type %s, %d entities already reindexed", jobId, entityType.getSimpleName(), checkpoint.getProcessed());
+		}
+		return reindex(checkpoint, query, batchSize, maxInFlight, reindexOperation);
+	}
+
+	/**
+	 * Reindexes the entities returned by the given query from the position recorded in the given checkpoint, updating the checkpoint as each batch completes.
+	 * The checkpoint is saved after each batch if it has an id.
+	 * 
+	 * @param checkpoint
+	 * @param query
+	 * @param batchSize
+	 * @param maxInFlight
+	 * @param reindexOperation
+	 * @return the given checkpoint
+	 */
+	protected ReindexCheckpoint reindex(final ReindexCheckpoint checkpoint, Query<E> query, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation) {
+		Deque<AsyncResult<Integer>> inFlight = new ArrayDeque<AsyncResult<Integer>>(maxInFlight);
+		Cursor cursor = checkpoint.cursor();
+		do {
+			awaitInFlight(inFlight, maxInFlight - 1, checkpoint.getProcessed());
+			// clear the session cache, otherwise every entity loaded is retained until the reindex completes
+			ofy().clear();
+			Query<E> batchQuery = query.limit(batchSize);
+			if (cursor != null) {
+				batchQuery = batchQuery.startAt(cursor);
+			}
+			QueryResultIterator<E> iterator = batchQuery.iterator();
+			List<E> batch = new ArrayList<E>(batchSize);
+			while (iterator.hasNext()) {
+				batch.add(iterator.next());
 			}
-			count += batch.size();
-			Logger.info("Reindexed %d entities of type %s, %d of %d", keyedLookup.size(), entityType.getSimpleName(), count, results.size());
+			cursor = batch.size() < batchSize ? null : iterator.getCursor();
+
+			final Cursor next = cursor;
+			final AsyncResult<Integer> batchResult = reindexBatch(batch, reindexOperation);
+			inFlight.add(new AsyncResult<Integer>() {
+				@Override
+				public Integer complete() {
+					int count = batchResult.complete();
+					checkpoint.update(count, next);
+					if (checkpoint.getId() != null) {
+						ofy().save().entity(checkpoint).now();
+					}
+					return count;
+				}
+			});
+		} while (cursor != null);
+		awaitInFlight(inFlight, 0, checkpoint.getProcessed());
+		return checkpoint;
+	}
+
+	/**
+	 * Applies the given {@link ReindexOperation} (if present) to the batch, then starts the save and index of the result.
+	 * Once indexed, the index fingerprints of the batch are cleared, so the next save of each entity indexes it again.
+	 * 
+	 * @param batch
+	 * @param reindexOperation
+	 * @return an async result which completes the save and index, returning the number of entities re-indexed
+	 */
+	protected AsyncResult<Integer> reindexBatch(List<E> batch, ReindexOperation<E> reindexOperation) {
+		final List<E> updated = reindexOperation == null ? batch : reindexOperation.apply(batch);
+		boolean hasEntities = !updated.isEmpty();
+		List<Long> ids = hasEntities && reindexOperation != null ? toIds.from(updated) : Collections.<Long> emptyList();
+		invalidateCache(ids);
+		// we only re-save the batch when a re-index op is supplied, otherwise the data can't have changed.
+		final Result<Map<Key<E>, E>> ofyFuture = hasEntities && reindexOperation != null ? ofy().save().entities(updated) : null;
+		final IndexOperation searchFuture = hasEntities && shouldSearch() ? searchService.index(stringIdLookup.from(updated), getFieldsToIndex()) : null;
+		return invalidateCacheOnComplete(new AsyncResult<Integer>() {
+			@Override
+			public Integer complete() {
+				if (ofyFuture != null) {
+					ofyFuture.now();
+				}
+				if (searchFuture != null) {
+					searchFuture.complete();
+					clearFingerprints(toIds.from(updated));
+				}
+				return updated.size();
+			}
+		}, ids);
+	}
+
+	/**
+	 * Completes the oldest in flight reindex batches until no more than the given number remain in flight.
+	 * 
+	 * @param inFlight
+	 * @param remaining
+	 * @param count the number of entities re-indexed prior to this call
+	 * @return the number of entities re-indexed by the completed batches
+	 */
+	private int awaitInFlight(Deque<AsyncResult<Integer>> inFlight, int remaining, long count) {
+		int completed = 0;
+		while (inFlight.size() > Math.max(0, remaining)) {
+			int batchCount = inFlight.poll().complete();
+			completed += batchCount;
+			Logger.info("Reindexed %d entities of type %s, %d so far", batchCount, entityType.getSimpleName(), count + completed);
 		}
+		return completed;
+	}
+
+	protected List<Long> keyIds(List<Key<E>> keys) {
+		List<Long> ids = new ArrayList<Long>(keys.size());
+		for (Key<E> key : keys) {
+			ids.add(key.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Assigns reserved ids to any of the given entities without one.
+	 * 
+	 * @param entities
+	 */
+	protected void assignIds(List<E> entities) {
+		List<E> unassigned = new ArrayList<E>();
+		for (E entity : entities) {
+			if (entity.getId() == null) {
+				unassigned.add(entity);
+			}
+		}
+		if (!unassigned.isEmpty()) {
+			List<Long> ids = idAllocator.next(unassigned.size());
+			for (int i = 0; i < unassigned.size(); i++) {
+				assignId(unassigned.get(i), ids.get(i));
+			}
+		}
+	}
+
+	protected void assignId(E entity, Long id) {
+		BeanUtil.setDeclaredProperty(entity, "id", id);
+	}
+
+	public void setIdAllocator(IdAllocator<E> idAllocator) {
+		this.idAllocator = idAllocator;
+	}
+
+	/**
+	 * When set, saved entities are only indexed if their indexed fields have changed since they were last indexed.
+	 * The fingerprints cover the fields returned by {@link #getFieldsToIndex()}.
+	 * 
+	 * @param indexFingerprints
+	 */
+	public void setIndexFingerprints(IndexFingerprints<E> indexFingerprints) {
+		this.indexFingerprints = indexFingerprints;
+	}
+
+	/**
+	 * When enabled, saves and deletes write a {@link SearchIndexIntent} for each entity in the same datastore transaction as the entity,
+	 * rather than updating the search index directly. The intents are applied to the search index by an {@link IndexOutboxTask}, which
+	 * is retried until it succeeds, so the index cannot be left stale by a failed search operation.
+	 * 
+	 * Entities are written in the active transaction, or otherwise in transactions of up to {@link #MaxTransactionEntityGroups} entities, and the tasks
+	 * are enqueued in the same transactions, so saves and deletes are completed before they return. Any intents left over, for example if a task
+	 * could not be enqueued, are applied by {@link #drainIndexOutbox(int)}.
+	 * 
+	 * A {@link #setRepositoryFactory(RepositoryFactory) repository factory} must be set so the tasks can create a repository to run with.
+	 * 
+	 * @param indexOutbox
+	 */
+	public void setIndexOutbox(boolean indexOutbox) {
+		this.indexOutbox = indexOutbox;
+	}
+
+	/**
+	 * Applies all pending {@link SearchIndexIntent}s of this entity type to the search index, a batch at a time.
+	 * This can be run periodically to apply any intents whose {@link IndexOutboxTask} was not enqueued.
+	 * 
+	 * @param batchSize
+	 * @return the number of intents applied
+	 */
+	public int drainIndexOutbox(int batchSize) {
+		int count = 0;
+		List<SearchIndexIntent> intents;
+		do {
+			intents = ofy().load().type(SearchIndexIntent.class).filter("entityType", entityType.getName()).limit(batchSize).list();
+			count += applyIntents(intents);
+			ofy().clear();
+		} while (intents.size() == batchSize);
 		return count;
 	}
 
+	/**
+	 * Applies the given {@link SearchIndexIntent}s to the search index. Intents which no longer exist have already been applied, and are ignored.
+	 * 
+	 * @param intentKeys
+	 * @return the number of intents applied
+	 */
+	public int drainIndexOutbox(List<Key<SearchIndexIntent>> intentKeys) {
+		Map<Key<SearchIndexIntent>, SearchIndexIntent> intents = ofy().load().keys(intentKeys);
+		return applyIntents(new ArrayList<SearchIndexIntent>(intents.values()));
+	}
+
+	/**
+	 * Brings the search index entry of each entity referred to by the given intents up to date with the datastore, indexing entities
+	 * which exist and removing those which don't, then deletes the intents. Throws a {@link RepositoryException} if indexing fails,
+	 * in which case the intents are kept.
+	 * 
+	 * @param intents
+	 * @return the number of intents applied
+	 */
+	protected int applyIntents(List<SearchIndexIntent> intents) {
+		if (intents.isEmpty()) {
+			return 0;
+		}
+		Set<Long> ids = new LinkedHashSet<Long>();
+		for (SearchIndexIntent intent : intents) {
+			ids.add(intent.getEntityId());
+		}
+		Map<Long, E> existing = ofy().load().type(entityType).ids(ids);
+		List<String> missing = new ArrayList<String>();
+		for (Long id : ids) {
+			if (!existing.containsKey(id)) {
+				missing.add(Transformers.IdToString.from(id));
+			}
+		}
+		List<AsyncResult<?>> operations = new ArrayList<AsyncResult<?>>();
+		if (!existing.isEmpty()) {
+			operations.add(AsyncResults.from(searchService.index(stringIdLookup.from(existing.values()), getFieldsToIndex())));
+		}
+		if (!missing.isEmpty()) {
+			operations.add(AsyncResults.from(searchService.remove(entityType, missing)));
+		}
+		AsyncResults.<Object> all(operations).complete();
+		// the index no longer matches any fingerprints recorded by saves
+		clearFingerprints(new ArrayList<Long>(ids));
+		ofy().delete().entities(intents).now();
+		return intents.size();
+	}
+
+	protected boolean useIndexOutbox() {
+		return indexOutbox && shouldSearch();
+	}
+
+	/**
+	 * Saves the given entities along with a {@link SearchIndexIntent} for each.
+	 * 
+	 * @param entities entities with ids assigned
+	 * @return an async result returning the saved entities
+	 * @see #writeWithIntents(List, List)
+	 */
+	protected AsyncResult<List<E>> saveWithIntents(final List<E> entities) {
+		final AsyncResult<Void> write = writeWithIntents(entities, Collections.<Long> emptyList());
+		return new AsyncResult<List<E>>() {
+			@Override
+			public List<E> complete() {
+				write.complete();
+				return entities;
+			}
+		};
+	}
+
+	/**
+	 * Deletes the entities with the given ids and saves a {@link SearchIndexIntent} for each.
+	 * 
+	 * @param ids
+	 * @return a completed result
+	 * @see #writeWithIntents(List, List)
+	 */
+	protected AsyncResult<Void> deleteWithIntents(List<Long> ids) {
+		return writeWithIntents(Collections.<E> emptyList(), ids);
+	}
+
+	/**
+	 * Saves the given entities, and deletes the entities with the given ids, along with a {@link SearchIndexIntent} for each. If a transaction
+	 * is active the writes join it, otherwise they are made in new cross group transactions of up to {@link #MaxTransactionEntityGroups} entities.
+	 * The tasks which apply the intents are enqueued in the same transactions, so they only run if the writes are committed.
+	 * 
+	 * @param saved entities with ids assigned
+	 * @param deleted
+	 * @return a completed result, as the transactions are committed before this returns
+	 */
+	protected AsyncResult<Void> writeWithIntents(List<E> saved, List<Long> deleted) {
+		if (ofy().getTxn() != null) {
+			writeBatchWithIntents(saved, deleted);
+		} else {
+			for (List<E> batch : Lists.partition(saved, MaxTransactionEntityGroups)) {
+				writeBatchWithIntentsInNewTransaction(batch, Collections.<Long> emptyList());
+			}
+			for (List<Long> batch : Lists.partition(deleted, MaxTransactionEntityGroups)) {
+				writeBatchWithIntentsInNewTransaction(Collections.<E> emptyList(), batch);
+			}
+		}
+		return AsyncResults.<Void> completed(null);
+	}
+
+	private void writeBatchWithIntentsInNewTransaction(final List<E> saved, final List<Long> deleted) {
+		ofy().transactNew(new Work<Void>() {
+			@Override
+			public Void run() {
+				writeBatchWithIntents(saved, deleted);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Writes the given entities and their intents in the current transaction, and enqueues the tasks to apply the intents with it.
+	 * 
+	 * @param saved
+	 * @param deleted
+	 */
+	protected void writeBatchWithIntents(List<E> saved, List<Long> deleted) {
+		List<Long> ids = new ArrayList<Long>(toIds.from(saved));
+		ids.addAll(deleted);
+		List<SearchIndexIntent> intents = createIntents(ids);
+		List<Object> toSave = new ArrayList<Object>(saved);
+		toSave.addAll(intents);
+		Result<Void> delete = deleted.isEmpty() ? null : ofy().delete().type(entityType).ids(deleted);
+		ofy().save().entities(toSave).now();
+		if (delete != null) {
+			delete.now();
+		}
+		List<Key<SearchIndexIntent>> intentKeys = new ArrayList<Key<SearchIndexIntent>>(intents.size());
+		for (SearchIndexIntent intent : intents) {
+			intentKeys.add(Key.create(intent));
+		}
+		enqueueIntents(intentKeys);
+	}
+
+	protected List<SearchIndexIntent> createIntents(List<Long> ids) {
+		List<SearchIndexIntent> intents = new ArrayList<SearchIndexIntent>(ids.size());
+		for (Long id : ids) {
+			intents.add(new SearchIndexIntent(entityType, id));
+		}
+		return intents;
+	}
+
+	/**
+	 * Enqueues an {@link IndexOutboxTask} for each batch of {@link #DefaultOutboxBatchSize} intents, in the current transaction. Failing to
+	 * enqueue the tasks does not fail the write, as the intents are kept until they are applied by {@link #drainIndexOutbox(int)}.
+	 * 
+	 * @param intentKeys
+	 */
+	protected void enqueueIntents(List<Key<SearchIndexIntent>> intentKeys) {
+		List<TaskOptions> taskOptions = new ArrayList<TaskOptions>();
+		for (List<Key<SearchIndexIntent>> batch : Lists.partition(intentKeys, DefaultOutboxBatchSize)) {
+			taskOptions.add(TaskOptions.Builder.withPayload(newIndexOutboxTask(batch)));
+		}
+		try {
+			indexOutboxQueue().add(ofy().getTxn(), taskOptions);
+		} catch (RuntimeException e) {
+			Logger.warn("Failed to enqueue search index tasks for %d %s intents, they will be applied when the index outbox is drained: %s", intentKeys.size(),
+					entityType.getSimpleName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates the task which applies the given intents to the search index.
+	 * 
+	 * @param intentKeys
+	 * @return
+	 */
+	protected IndexOutboxTask<E> newIndexOutboxTask(List<Key<SearchIndexIntent>> intentKeys) {
+		return new IndexOutboxTask<E>(repositoryFactory(), intentKeys);
+	}
+
+	/**
+	 * @return the queue index outbox tasks are added to, by default the default queue
+	 */
+	protected Queue indexOutboxQueue() {
+		return QueueFactory.getDefaultQueue();
+	}
+
+	/**
+	 * @param entities
+	 * @return the fingerprints of the entities whose indexed fields have changed, or null if fingerprints are not in use
+	 */
+	protected Map<Long, String> changedFingerprints(List<E> entities) {
+		return indexFingerprints == null || !shouldSearch() ? null : indexFingerprints.changed(entities, getFieldsToIndex());
+	}
+
+	protected void recordFingerprints(Map<Long, String> fingerprints) {
+		if (fingerprints != null) {
+			indexFingerprints.record(fingerprints);
+		}
+	}
+
+	/**
+	 * When set, loads by id read through the given {@link NearCache}, and saves and deletes invalidate it.
+	 * 
+	 * @param nearCache
+	 */
+	public void setNearCache(NearCache<E> nearCache) {
+		this.nearCache = nearCache;
+	}
+
+	/**
+	 * When set, ids which are loaded but do not exist are remembered for a short time, so loading them again does not go to the datastore.
+	 * 
+	 * @param missingIdCache
+	 */
+	public void setMissingIdCache(MissingIdCache<E> missingIdCache) {
+		this.missingIdCache = missingIdCache;
+	}
+
+	/**
+	 * Removes the ids of the given entities from the {@link MissingIdCache}, before they are saved. Entities without an id are assigned
+	 * a newly allocated id, so cannot have been recorded as missing.
+	 * 
+	 * @param entities
+	 */
+	protected void forgetMissing(List<E> entities) {
+		if (missingIdCache != null) {
+			List<Long> ids = new ArrayList<Long>();
+			for (E entity : entities) {
+				if (entity.getId() != null) {
+					ids.add(entity.getId());
+				}
+			}
+			missingIdCache.remove(ids);
+		}
+	}
+
+	/**
+	 * When set, the entities of search results are read from the given cache before the datastore, and saves and deletes remove them from it.
+	 * 
+	 * @param searchResultCache
+	 */
+	public void setSearchResultCache(EntityMemcache<E> searchResultCache) {
+		this.searchResultCache = searchResultCache;
+	}
+
+	protected void invalidateCache(List<Long> ids) {
+		if (ids.isEmpty()) {
+			return;
+		}
+		if (nearCache != null) {
+			nearCache.invalidate(ids);
+		}
+		if (searchResultCache != null) {
+			searchResultCache.remove(ids);
+		}
+	}
+
+	/**
+	 * Invalidates the cached entities with the given ids again once the given write completes. A load which read the cache generation after the
+	 * write started, but before it was committed, may otherwise have cached the entities as they were before the write.
+	 * 
+	 * @param write
+	 * @param ids
+	 * @return an async result which completes the write, then invalidates the cached entities
+	 */
+	protected <T> AsyncResult<T> invalidateCacheOnComplete(final AsyncResult<T> write, final List<Long> ids) {
+		if ((nearCache == null && searchResultCache == null) || ids.isEmpty()) {
+			return write;
+		}
+		return new AsyncResult<T>() {
+			@Override
+			public T complete() {
+				T result = write.complete();
+				invalidateCache(ids);
+				return result;
+			}
+		};
+	}
+
+	protected void clearFingerprints(List<Long> ids) {
+		if (indexFingerprints != null) {
+			indexFingerprints.clear(ids);
+		}
+	}
+
+	/**
+	 * Sets the factory which creates the repository that runs this repository's deferred tasks, such as sharded reindexes and
+	 * index outbox tasks. A factory must be set before {@link #reindexInShards(String, int, int, ReindexOperation)} is used or the
+	 * {@link #setIndexOutbox(boolean) index outbox} is enabled.
+	 * 
+	 * @param repositoryFactory
+	 */
+	public void setRepositoryFactory(RepositoryFactory<E> repositoryFactory) {
+		this.repositoryFactory = repositoryFactory;
+	}
+
+	/**
+	 * @return the factory which creates the repository that runs this repository's deferred tasks
+	 * @throws BaseException if no factory has been set
+	 */
+	protected RepositoryFactory<E> repositoryFactory() {
+		if (repositoryFactory == null) {
+			throw new BaseException("Unable to create a deferred task for type %s - no %s has been set on the repository", entityType.getSimpleName(), RepositoryFactory.class.getSimpleName());
+		}
+		return repositoryFactory;
+	}
+
 	protected boolean shouldSearch() {
 		List<String> fieldsToIndex = getFieldsToIndex();
 		return fieldsToIndex != null && !fieldsToIndex.isEmpty() && searchService != null;
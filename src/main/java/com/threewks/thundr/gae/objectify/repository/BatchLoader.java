@@ -0,0 +1,107 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Coalesces individual loads into a single batch load. Each call to {@link #load(Long)} records the id and returns an {@link AsyncResult}
+ * immediately, the first result to be completed loads every id recorded so far in one batch get. Ids requested after that are
+ * collected into the next batch.
+ * 
+ * A {@link BatchLoader} retains everything it loads, so should be scoped to a single request or unit of work.
+ * 
+ * @see Repository#loader()
+ */
+public class BatchLoader<E extends RepositoryEntity> {
+	private Repository<E> repository;
+	private Set<Long> pending = new LinkedHashSet<Long>();
+	private Map<Long, E> loaded = new HashMap<Long, E>();
+
+	public BatchLoader(Repository<E> repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Queue the given id to be loaded in the next batch.
+	 * 
+	 * @param id
+	 * @return an async result which returns the entity, or null if no entity exists
+	 */
+	public synchronized AsyncResult<E> load(final Long id) {
+		if (!loaded.containsKey(id)) {
+			pending.add(id);
+		}
+		return new AsyncResult<E>() {
+			@Override
+			public E complete() {
+				return get(id);
+			}
+		};
+	}
+
+	/**
+	 * Queue the given ids to be loaded in the next batch.
+	 * 
+	 * @param ids
+	 * @return an async result which returns a list containing an entry for each corresponding id, containing the entity or null if none exists
+	 */
+	public synchronized AsyncResult<List<E>> load(final List<Long> ids) {
+		for (Long id : ids) {
+			if (!loaded.containsKey(id)) {
+				pending.add(id);
+			}
+		}
+		return new AsyncResult<List<E>>() {
+			@Override
+			public List<E> complete() {
+				List<E> results = new ArrayList<E>(ids.size());
+				for (Long id : ids) {
+					results.add(get(id));
+				}
+				return results;
+			}
+		};
+	}
+
+	/**
+	 * Loads all queued ids in a single batch.
+	 */
+	public synchronized void flush() {
+		if (!pending.isEmpty()) {
+			List<Long> ids = new ArrayList<Long>(pending);
+			pending.clear();
+			List<E> entities = repository.load(ids);
+			for (int i = 0; i < ids.size(); i++) {
+				loaded.put(ids.get(i), entities.get(i));
+			}
+		}
+	}
+
+	private synchronized E get(Long id) {
+		if (!loaded.containsKey(id)) {
+			flush();
+		}
+		return loaded.get(id);
+	}
+}
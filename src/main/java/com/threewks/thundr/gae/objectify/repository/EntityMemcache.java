@@ -0,0 +1,151 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Caches entities of a single type in memcache, keyed by id. Entities are cached as datastore {@link Entity}s, so each read returns a new instance.
+ * 
+ * Entities are only added if they are not already present, and not removed recently, so an entity read from the datastore before a save
+ * cannot replace the saved entity in the cache.
+ * 
+ * @see BaseRepository#setSearchResultCache(EntityMemcache)
+ * @see NearCache
+ */
+public class EntityMemcache<E extends RepositoryEntity> {
+	public static final int DefaultExpirySeconds = 60 * 60;
+	/**
+	 * The time after an entity is removed during which it cannot be added again
+	 */
+	public static final long RemovalHoldMillis = 2000;
+
+	private Class<E> entityType;
+	private MemcacheService memcacheService;
+	private AsyncMemcacheService asyncMemcacheService;
+	private int expirySeconds = DefaultExpirySeconds;
+
+	public EntityMemcache(Class<E> entityType, MemcacheService memcacheService) {
+		this(entityType, memcacheService, MemcacheServiceFactory.getAsyncMemcacheService(memcacheService.getNamespace()));
+	}
+
+	public EntityMemcache(Class<E> entityType, MemcacheService memcacheService, AsyncMemcacheService asyncMemcacheService) {
+		this.entityType = entityType;
+		this.memcacheService = memcacheService;
+		this.asyncMemcacheService = asyncMemcacheService;
+	}
+
+	/**
+	 * @param ids
+	 * @return the cached entities with the given ids, keyed by id. Ids which are not cached are not present.
+	 */
+	public Map<Long, E> get(Collection<Long> ids) {
+		Map<Long, E> results = new LinkedHashMap<Long, E>();
+		for (Map.Entry<Long, Entity> entry : getEntities(ids).entrySet()) {
+			results.put(entry.getKey(), EntityMemcache.<E> fromEntity(entry.getValue()));
+		}
+		return results;
+	}
+
+	/**
+	 * Caches the given entities, without waiting for memcache to respond.
+	 * 
+	 * @param entities entities which have just been read from the datastore
+	 * @return a future which completes when the entities are cached
+	 */
+	public Future<Set<String>> putAsync(Collection<E> entities) {
+		return asyncMemcacheService.putAll(toEntities(entities), Expiration.byDeltaSeconds(expirySeconds), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+	}
+
+	/**
+	 * Caches the given entities.
+	 * 
+	 * @param entities entities which have just been read from the datastore
+	 */
+	public void put(Collection<E> entities) {
+		memcacheService.putAll(toEntities(entities), Expiration.byDeltaSeconds(expirySeconds), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+	}
+
+	/**
+	 * Removes the entities with the given ids, which must be done before they are saved or deleted.
+	 * 
+	 * @param ids
+	 */
+	public void remove(Collection<Long> ids) {
+		if (!ids.isEmpty()) {
+			memcacheService.deleteAll(new ArrayList<String>(keys(ids).keySet()), RemovalHoldMillis);
+		}
+	}
+
+	public void setExpirySeconds(int expirySeconds) {
+		this.expirySeconds = expirySeconds;
+	}
+
+	protected String key(Long id) {
+		return "Entity:" + entityType.getName() + ":" + id;
+	}
+
+	Map<Long, Entity> getEntities(Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, Long> keys = keys(ids);
+		Map<Long, Entity> results = new LinkedHashMap<Long, Entity>();
+		for (Map.Entry<String, Object> entry : memcacheService.getAll(keys.keySet()).entrySet()) {
+			results.put(keys.get(entry.getKey()), (Entity) entry.getValue());
+		}
+		return results;
+	}
+
+	Map<String, Entity> toEntities(Collection<E> entities) {
+		Map<String, Entity> values = new LinkedHashMap<String, Entity>();
+		for (E entity : entities) {
+			values.put(key(entity.getId()), ofy().save().toEntity(entity));
+		}
+		return values;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <E> E fromEntity(Entity entity) {
+		return (E) ofy().load().fromEntity(entity);
+	}
+
+	private Map<String, Long> keys(Collection<Long> ids) {
+		Map<String, Long> keys = new LinkedHashMap<String, Long>();
+		for (Long id : ids) {
+			keys.put(key(id), id);
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.googlecode.objectify.Key;
+
+/**
+ * Reserves datastore ids for an entity type in blocks, so that ids can be assigned to new entities
+ * before they are saved without a datastore round trip per entity.
+ * 
+ * Ids which are allocated but never used are simply skipped, the datastore will not reissue them.
+ */
+public class IdAllocator<E> {
+	private Class<E> type;
+	private int blockSize;
+	private Iterator<Key<E>> reserved;
+
+	public IdAllocator(Class<E> type, int blockSize) {
+		this.type = type;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return the next reserved id, reserving a new block if required
+	 */
+	public synchronized Long next() {
+		if (reserved == null || !reserved.hasNext()) {
+			reserved = allocate(blockSize);
+		}
+		return reserved.next().getId();
+	}
+
+	/**
+	 * @param count
+	 * @return the given number of reserved ids. When more ids are requested than the block size they are allocated together.
+	 */
+	public synchronized List<Long> next(int count) {
+		List<Long> ids = new ArrayList<Long>(count);
+		if (count > blockSize) {
+			Iterator<Key<E>> keys = allocate(count);
+			while (keys.hasNext()) {
+				ids.add(keys.next().getId());
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				ids.add(next());
+			}
+		}
+		return ids;
+	}
+
+	protected Iterator<Key<E>> allocate(int count) {
+		return ofy().factory().allocateIds(type, count).iterator();
+	}
+}
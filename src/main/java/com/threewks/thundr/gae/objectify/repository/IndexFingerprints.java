@@ -0,0 +1,137 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.threewks.thundr.search.google.DocumentMapper;
+
+/**
+ * Records a fingerprint of the indexed field values of each entity in memcache once it has been indexed, so that saving an entity
+ * whose indexed fields have not changed does not need to index it again.
+ * 
+ * Fingerprints expire, and may be evicted at any time, in which case the entity is indexed on its next save.
+ * 
+ * The indexed fields are given by the repository on each call, so a fingerprint always covers the fields the repository indexes.
+ * 
+ * @see BaseRepository#setIndexFingerprints(IndexFingerprints)
+ */
+public class IndexFingerprints<E extends RepositoryEntity> {
+	public static final int DefaultExpirySeconds = 24 * 60 * 60;
+
+	private MemcacheService memcacheService;
+	private Class<E> entityType;
+	private ConcurrentMap<List<String>, DocumentMapper> documentMappers = new ConcurrentHashMap<List<String>, DocumentMapper>();
+	private int expirySeconds = DefaultExpirySeconds;
+
+	public IndexFingerprints(Class<E> entityType, MemcacheService memcacheService) {
+		this.entityType = entityType;
+		this.memcacheService = memcacheService;
+	}
+
+	/**
+	 * Determines which of the given entities have indexed fields which differ from when they were last indexed.
+	 * 
+	 * @param entities
+	 * @param fields the indexed fields
+	 * @return the fingerprint of each changed entity, keyed by its id
+	 */
+	public Map<Long, String> changed(Collection<E> entities, List<String> fields) {
+		DocumentMapper documentMapper = getDocumentMapper(fields);
+		Map<String, Long> keys = new LinkedHashMap<String, Long>();
+		Map<Long, String> fingerprints = new LinkedHashMap<Long, String>();
+		for (E entity : entities) {
+			keys.put(key(entity.getId()), entity.getId());
+			fingerprints.put(entity.getId(), fingerprint(entity, fields, documentMapper));
+		}
+		Map<String, Object> existing = memcacheService.getAll(keys.keySet());
+		for (Map.Entry<String, Object> entry : existing.entrySet()) {
+			Long id = keys.get(entry.getKey());
+			if (fingerprints.get(id).equals(entry.getValue())) {
+				fingerprints.remove(id);
+			}
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * Records the given fingerprints, which should only be done once the entities have been indexed.
+	 * 
+	 * @param fingerprints the fingerprint of each entity, keyed by its id
+	 */
+	public void record(Map<Long, String> fingerprints) {
+		if (!fingerprints.isEmpty()) {
+			Map<String, String> values = new LinkedHashMap<String, String>();
+			for (Map.Entry<Long, String> entry : fingerprints.entrySet()) {
+				values.put(key(entry.getKey()), entry.getValue());
+			}
+			memcacheService.putAll(values, Expiration.byDeltaSeconds(expirySeconds));
+		}
+	}
+
+	/**
+	 * Forgets the fingerprints of the given entities, so they are indexed on their next save.
+	 * 
+	 * @param ids
+	 */
+	public void clear(Collection<Long> ids) {
+		List<String> keys = new ArrayList<String>(ids.size());
+		for (Long id : ids) {
+			keys.add(key(id));
+		}
+		memcacheService.deleteAll(keys);
+	}
+
+	public void setExpirySeconds(int expirySeconds) {
+		this.expirySeconds = expirySeconds;
+	}
+
+	protected String fingerprint(E entity, List<String> fields, DocumentMapper documentMapper) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(fields);
+		for (Object value : documentMapper.values(entity)) {
+			sb.append('\u0000');
+			sb.append(value instanceof Date ? ((Date) value).getTime() : value);
+		}
+		return Hashing.md5().hashBytes(sb.toString().getBytes(Charsets.UTF_8)).toString();
+	}
+
+	protected DocumentMapper getDocumentMapper(List<String> fields) {
+		DocumentMapper documentMapper = documentMappers.get(fields);
+		if (documentMapper == null) {
+			documentMapper = new DocumentMapper(entityType, fields);
+			documentMappers.put(new ArrayList<String>(fields), documentMapper);
+		}
+		return documentMapper;
+	}
+
+	protected String key(Long id) {
+		return "IndexFingerprint:" + entityType.getName() + ":" + id;
+	}
+}
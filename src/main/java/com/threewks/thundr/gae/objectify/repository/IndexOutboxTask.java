@@ -0,0 +1,58 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+import com.googlecode.objectify.Key;
+
+/**
+ * A {@link DeferredTask} which applies the given {@link SearchIndexIntent}s to the search index.
+ * If indexing fails, the task fails and is retried by the task queue, leaving the intents in place until it succeeds.
+ * 
+ * @see BaseRepository#drainIndexOutbox(List)
+ */
+public class IndexOutboxTask<E extends RepositoryEntity> implements DeferredTask {
+	private static final long serialVersionUID = 5120473398735316172L;
+
+	protected RepositoryFactory<E> repositoryFactory;
+	protected ArrayList<Key<SearchIndexIntent>> intents;
+
+	public IndexOutboxTask(RepositoryFactory<E> repositoryFactory, List<Key<SearchIndexIntent>> intents) {
+		this.repositoryFactory = repositoryFactory;
+		this.intents = new ArrayList<Key<SearchIndexIntent>>(intents);
+	}
+
+	public List<Key<SearchIndexIntent>> getIntents() {
+		return intents;
+	}
+
+	@Override
+	public void run() {
+		repository().drainIndexOutbox(intents);
+	}
+
+	/**
+	 * @return the repository used to drain the outbox, created by the {@link RepositoryFactory} of the repository which created this task
+	 */
+	protected BaseRepository<E> repository() {
+		return repositoryFactory.create();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+
+/**
+ * Remembers ids which were loaded but did not exist, for a short time, so that repeated loads of missing ids do not need to go to the datastore.
+ * 
+ * Entries are held in memcache so that a save on any instance removes them. Entries can only be added if they were not removed recently,
+ * so a load which started before a save cannot mark the saved entity as missing.
+ * 
+ * @see BaseRepository#setMissingIdCache(MissingIdCache)
+ */
+public class MissingIdCache<E extends RepositoryEntity> {
+	public static final int DefaultExpirySeconds = 60;
+	/**
+	 * The time after an entry is removed during which it cannot be added again
+	 */
+	public static final long RemovalHoldMillis = 2000;
+
+	private Class<E> entityType;
+	private MemcacheService memcacheService;
+	private int expirySeconds = DefaultExpirySeconds;
+
+	public MissingIdCache(Class<E> entityType, MemcacheService memcacheService) {
+		this.entityType = entityType;
+		this.memcacheService = memcacheService;
+	}
+
+	/**
+	 * @param ids
+	 * @return the ids among those given which are known not to exist
+	 */
+	public Set<Long> missing(Collection<Long> ids) {
+		Set<Long> missing = new LinkedHashSet<Long>();
+		if (!ids.isEmpty()) {
+			Map<String, Long> keys = keys(ids);
+			for (String key : memcacheService.getAll(keys.keySet()).keySet()) {
+				missing.add(keys.get(key));
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Records that the given ids do not exist.
+	 * 
+	 * @param ids
+	 */
+	public void record(Collection<Long> ids) {
+		if (!ids.isEmpty()) {
+			Map<String, Boolean> values = new LinkedHashMap<String, Boolean>();
+			for (String key : keys(ids).keySet()) {
+				values.put(key, Boolean.TRUE);
+			}
+			memcacheService.putAll(values, Expiration.byDeltaSeconds(expirySeconds), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+		}
+	}
+
+	/**
+	 * Forgets that the given ids do not exist, which must be done before entities with those ids are saved.
+	 * 
+	 * @param ids
+	 */
+	public void remove(Collection<Long> ids) {
+		if (!ids.isEmpty()) {
+			List<String> keys = new ArrayList<String>(keys(ids).keySet());
+			memcacheService.deleteAll(keys, RemovalHoldMillis);
+		}
+	}
+
+	public void setExpirySeconds(int expirySeconds) {
+		this.expirySeconds = expirySeconds;
+	}
+
+	protected String key(Long id) {
+		return "MissingId:" + entityType.getName() + ":" + id;
+	}
+
+	private Map<String, Long> keys(Collection<Long> ids) {
+		Map<String, Long> keys = new LinkedHashMap<String, Long>();
+		for (Long id : ids) {
+			keys.put(key(id), id);
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.threewks.thundr.logger.Logger;
+
+/**
+ * A two tier read through cache of entities, made up of a bounded in memory cache in front of an {@link EntityMemcache}. This is intended for read mostly entity types.
+ * 
+ * Entities are cached as datastore {@link Entity}s, so each load returns a new instance which callers are free to modify.
+ * 
+ * Invalidating entities removes them from both tiers, and increments a generation counter held in memcache. Each instance checks the
+ * generation at most every {@link #setGenerationCheckMillis(long)} milliseconds, and clears its in memory cache when it has changed, which bounds
+ * how long other instances can return a stale entity. Entities are also only held in memory for {@link #DefaultLocalExpirySeconds} seconds
+ * after they are cached, unless another expiry is given, which bounds how long any missed invalidation can be served from memory.
+ * 
+ * @see BaseRepository#setNearCache(NearCache)
+ */
+public class NearCache<E extends RepositoryEntity> {
+	public static final int DefaultMaximumSize = 1000;
+	public static final long DefaultGenerationCheckMillis = 1000;
+	public static final int DefaultLocalExpirySeconds = 60;
+
+	private Class<E> entityType;
+	private MemcacheService memcacheService;
+	private EntityMemcache<E> memcache;
+	private Cache<Long, Entity> local;
+	private String generationKey;
+	private long generationCheckMillis = DefaultGenerationCheckMillis;
+	private volatile Long generation;
+	private volatile long generationChecked;
+
+	public NearCache(Class<E> entityType, MemcacheService memcacheService) {
+		this(entityType, memcacheService, DefaultMaximumSize);
+	}
+
+	public NearCache(Class<E> entityType, MemcacheService memcacheService, int maximumSize) {
+		this(entityType, memcacheService, maximumSize, DefaultLocalExpirySeconds);
+	}
+
+	/**
+	 * @param entityType
+	 * @param memcacheService
+	 * @param maximumSize the maximum number of entities held in memory
+	 * @param localExpirySeconds the number of seconds entities are held in memory after they are cached
+	 */
+	public NearCache(Class<E> entityType, MemcacheService memcacheService, int maximumSize, int localExpirySeconds) {
+		this.entityType = entityType;
+		this.memcacheService = memcacheService;
+		this.memcache = new EntityMemcache<E>(entityType, memcacheService);
+		this.local = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(localExpirySeconds, TimeUnit.SECONDS).build();
+		this.generationKey = "NearCache:" + entityType.getName() + ":generation";
+	}
+
+	/**
+	 * @param ids
+	 * @return the cached entities with the given ids, keyed by id. Ids which are not cached are not present.
+	 */
+	public Map<Long, E> get(Collection<Long> ids) {
+		checkGeneration();
+		Map<Long, E> results = new LinkedHashMap<Long, E>();
+		List<Long> misses = new ArrayList<Long>();
+		for (Long id : ids) {
+			Entity entity = local.getIfPresent(id);
+			if (entity != null) {
+				results.put(id, EntityMemcache.<E> fromEntity(entity));
+			} else {
+				misses.add(id);
+			}
+		}
+		for (Map.Entry<Long, Entity> entry : memcache.getEntities(misses).entrySet()) {
+			local.put(entry.getKey(), entry.getValue());
+			results.put(entry.getKey(), EntityMemcache.<E> fromEntity(entry.getValue()));
+		}
+		return results;
+	}
+
+	/**
+	 * @return the current generation of the cache, which should be read before loading entities that are then given to {@link #put(Collection, Long)}
+	 */
+	public Long generation() {
+		checkGeneration();
+		return generation;
+	}
+
+	/**
+	 * Caches the given entities, which should have just been loaded from the datastore. Entities are only added to memcache if they are not
+	 * already present and were not recently invalidated, and are only held in memory if no invalidation has been seen since the given generation.
+	 * 
+	 * @param entities
+	 * @param loadedGeneration the generation read before the entities were loaded
+	 */
+	public void put(Collection<E> entities, Long loadedGeneration) {
+		if (!entities.isEmpty()) {
+			boolean current = loadedGeneration != null && loadedGeneration.equals(generation);
+			if (current) {
+				for (E entity : entities) {
+					local.put(entity.getId(), ofy().save().toEntity(entity));
+				}
+			}
+			memcache.put(entities);
+		}
+	}
+
+	/**
+	 * Removes the entities with the given ids from both tiers, and increments the generation so that other instances clear their in memory cache.
+	 * 
+	 * @param ids
+	 */
+	public void invalidate(Collection<Long> ids) {
+		local.invalidateAll(ids);
+		memcache.remove(ids);
+		Long updated = memcacheService.increment(generationKey, 1L, 0L);
+		generation = updated;
+		generationChecked = System.currentTimeMillis();
+	}
+
+	/**
+	 * Clears the in memory cache of this instance.
+	 */
+	public void clear() {
+		local.invalidateAll();
+	}
+
+	public long size() {
+		return local.size();
+	}
+
+	public void setGenerationCheckMillis(long generationCheckMillis) {
+		this.generationCheckMillis = generationCheckMillis;
+	}
+
+	public void setExpirySeconds(int expirySeconds) {
+		memcache.setExpirySeconds(expirySeconds);
+	}
+
+	protected void checkGeneration() {
+		long now = System.currentTimeMillis();
+		if (generation == null || now - generationChecked >= generationCheckMillis) {
+			Long current = (Long) memcacheService.get(generationKey);
+			if (current == null) {
+				// the generation was evicted or never set, so it is reset along with anything cached against it
+				current = memcacheService.increment(generationKey, 1L, 0L);
+			}
+			if (generation != null && !generation.equals(current)) {
+				Logger.debug("%s near cache generation changed from %d to %d, clearing", entityType.getSimpleName(), generation, current);
+				local.invalidateAll();
+			}
+			generation = current;
+			generationChecked = now;
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.Date;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * Records the progress of a named reindex job, allowing a job which was interrupted to be resumed
+ * from the last batch it completed.
+ * 
+ * @see Repository#reindex(String, int, int, ReindexOperation)
+ */
+@Entity
+public class ReindexCheckpoint {
+	@Id private String id;
+	private String entityType;
+	private String cursor;
+	private long processed;
+	private boolean complete;
+	private Date updated;
+
+	protected ReindexCheckpoint() {
+	}
+
+	public ReindexCheckpoint(String id, Class<?> entityType) {
+		this.id = id;
+		this.entityType = entityType.getName();
+		this.updated = new Date();
+	}
+
+	/**
+	 * @return the id of the reindex job, or null if this checkpoint is not persisted
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the class name of the entity type being reindexed
+	 */
+	public String getEntityType() {
+		return entityType;
+	}
+
+	/**
+	 * @return the web safe datastore cursor the job will resume from, or null if the job has not started or is complete
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return the number of entities reindexed so far
+	 */
+	public long getProcessed() {
+		return processed;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public Date getUpdated() {
+		return updated;
+	}
+
+	Cursor cursor() {
+		return cursor == null ? null : Cursor.fromWebSafeString(cursor);
+	}
+
+	/**
+	 * Records the completion of a batch.
+	 * 
+	 * @param count the number of entities reindexed in the batch
+	 * @param next the cursor following the batch, or null if it was the final batch
+	 */
+	void update(int count, Cursor next) {
+		this.processed += count;
+		this.cursor = next == null ? null : next.toWebSafeString();
+		this.complete = next == null;
+		this.updated = new Date();
+	}
+}
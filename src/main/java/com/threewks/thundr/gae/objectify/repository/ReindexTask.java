@@ -0,0 +1,61 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import com.google.appengine.api.taskqueue.DeferredTask;
+
+/**
+ * A {@link DeferredTask} which reindexes a single key range shard of an entity type.
+ * 
+ * @see Repository#reindexInShards(String, int, int, ReindexOperation)
+ */
+public class ReindexTask<E extends RepositoryEntity> implements DeferredTask {
+	private static final long serialVersionUID = -2740153924634127395L;
+
+	protected RepositoryFactory<E> repositoryFactory;
+	protected String jobId;
+	protected Long fromId;
+	protected Long toId;
+	protected int batchSize;
+	protected ReindexOperation<E> reindexOperation;
+
+	public ReindexTask(RepositoryFactory<E> repositoryFactory, String jobId, Long fromId, Long toId, int batchSize, ReindexOperation<E> reindexOperation) {
+		this.repositoryFactory = repositoryFactory;
+		this.jobId = jobId;
+		this.fromId = fromId;
+		this.toId = toId;
+		this.batchSize = batchSize;
+		this.reindexOperation = reindexOperation;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	@Override
+	public void run() {
+		repository().reindexShard(jobId, fromId, toId, batchSize, 1, reindexOperation);
+	}
+
+	/**
+	 * @return the repository used to reindex the shard, created by the {@link RepositoryFactory} of the repository which created this task
+	 */
+	protected BaseRepository<E> repository() {
+		return repositoryFactory.create();
+	}
+}
@@ -17,6 +17,7 @@
  */
 package com.threewks.thundr.gae.objectify.repository;
 
+import java.util.Iterator;
 import java.util.List;
 
 import com.atomicleopard.expressive.ETransformer;
@@ -68,6 +69,30 @@ public interface Repository<E extends RepositoryEntity> {
 	 */
 	public List<E> load(List<Long> ids);
 
+	/**
+	 * Start loading the entity with the given id, without waiting for the load to complete.
+	 * 
+	 * @param id
+	 * @return an async result which returns the entity, or null if no entity exists
+	 */
+	public AsyncResult<E> loadAsync(Long id);
+
+	/**
+	 * Start loading the entities with the given ids, without waiting for the load to complete.
+	 * 
+	 * @param ids
+	 * @return an async result which returns a list containing an entry for each corresponding id, containing the entity or null if none exists
+	 */
+	public AsyncResult<List<E>> loadAsync(List<Long> ids);
+
+	/**
+	 * Creates a {@link BatchLoader} which coalesces individual loads into a single batch load.
+	 * The loader should be scoped to a single request or unit of work.
+	 * 
+	 * @return a new {@link BatchLoader}
+	 */
+	public BatchLoader<E> loader();
+
 	/**
 	 * List up to count entities.
 	 * This will load all entities into memory, so should only be used where the number of entities is constrained.
@@ -77,6 +102,22 @@ public interface Repository<E extends RepositoryEntity> {
 	 */
 	public List<E> list(int count);
 
+	/**
+	 * List the ids of up to count entities, without loading the entities.
+	 * 
+	 * @param count
+	 * @return
+	 */
+	public List<Long> listIds(int count);
+
+	/**
+	 * Determine whether entities with the given ids exist, without loading the entities.
+	 * 
+	 * @param ids
+	 * @return a list containing an entry for each corresponding id, which is true if the entity exists
+	 */
+	public List<Boolean> exists(List<Long> ids);
+
 	/**
 	 * Load all entities whose field has the value of the given object.
 	 * Note that the given field must be indexed for anything to be returned.
@@ -99,6 +140,46 @@ public interface Repository<E extends RepositoryEntity> {
 	 */
 	public List<E> loadByField(String field, List<Object> values);
 
+	/**
+	 * Load the ids of all entities whose field has the value of the given object, without loading the entities.
+	 * Note that the given field must be indexed for anything to be returned.
+	 * 
+	 * @param field
+	 * @param value
+	 * @return
+	 */
+	public List<Long> loadIdsByField(String field, Object value);
+
+	/**
+	 * Load the ids of all entities whose field has the values of any of the given objects, without loading the entities.
+	 * Note that the given field must be indexed for anything to be returned.
+	 * 
+	 * @param field
+	 * @param values
+	 * @return
+	 */
+	public List<Long> loadIdsByField(String field, List<Object> values);
+
+	/**
+	 * Start loading all entities whose field has the value of the given object, without waiting for the query to complete.
+	 * 
+	 * @param field
+	 * @param value
+	 * @return an async result which returns the matching entities
+	 * @see #loadByField(String, Object)
+	 */
+	public AsyncResult<List<E>> loadByFieldAsync(String field, Object value);
+
+	/**
+	 * Start loading all entities whose field has the values of any of the given objects, without waiting for the query to complete.
+	 * 
+	 * @param field
+	 * @param values
+	 * @return an async result which returns the matching entities
+	 * @see #loadByField(String, List)
+	 */
+	public AsyncResult<List<E>> loadByFieldAsync(String field, List<Object> values);
+
 	/**
 	 * @return a builder for a search operation
 	 */
@@ -120,6 +201,38 @@ public interface Repository<E extends RepositoryEntity> {
 	 */
 	public List<Long> completeIdSearch(Search<E> search);
 
+	/**
+	 * Used by implementations to complete a search for a single page of results. You should use the fluent {@link #search()} call instead.
+	 * 
+	 * @param search
+	 * @return
+	 */
+	public SearchPage<E> completeSearchPage(Search<E> search);
+
+	/**
+	 * Used by implementations to iterate over every page of a search. You should use the fluent {@link #search()} call instead.
+	 * 
+	 * @param search
+	 * @return
+	 */
+	public Iterator<E> completeSearchStream(Search<E> search);
+
+	/**
+	 * Used by implementations to start a search without waiting for it to complete. You should use the fluent {@link #search()} call instead.
+	 * 
+	 * @param search
+	 * @return
+	 */
+	public AsyncResult<List<E>> completeSearchAsync(Search<E> search);
+
+	/**
+	 * Used by implementations to start a search without waiting for it to complete. You should use the fluent {@link #search()} call instead.
+	 * 
+	 * @param search
+	 * @return
+	 */
+	public AsyncResult<List<Long>> completeIdSearchAsync(Search<E> search);
+
 	/**
 	 * Delete the entity with the given id
 	 * 
@@ -171,6 +284,62 @@ public interface Repository<E extends RepositoryEntity> {
 	 */
 	public int reindex(Search<E> search, int batchSize, ReindexOperation<E> reindexOperation);
 
+	/**
+	 * Reindexes all the entities matching the given search operation, saving and indexing up to maxInFlight batches concurrently
+	 * while the following batch is loaded. The given {@link ReindexOperation}, if present will be applied to each batch of entities.
+	 * 
+	 * @param search
+	 * @param batchSize
+	 * @param maxInFlight the maximum number of batches being saved and indexed at any time
+	 * @param reindexOperation
+	 * @return the overall count of re-indexed entities.
+	 */
+	public int reindex(Search<E> search, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation);
+
+	/**
+	 * Reindexes all entities of this type, streaming through the datastore a batch at a time. The given {@link ReindexOperation}, if present will be applied to each batch of entities.
+	 * 
+	 * @param batchSize
+	 * @param reindexOperation
+	 * @return the overall count of re-indexed entities.
+	 */
+	public int reindex(int batchSize, ReindexOperation<E> reindexOperation);
+
+	/**
+	 * Reindexes all entities of this type, saving and indexing up to maxInFlight batches concurrently
+	 * while the following batch is loaded. The given {@link ReindexOperation}, if present will be applied to each batch of entities.
+	 * 
+	 * @param batchSize
+	 * @param maxInFlight the maximum number of batches being saved and indexed at any time
+	 * @param reindexOperation
+	 * @return the overall count of re-indexed entities.
+	 */
+	public int reindex(int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation);
+
+	/**
+	 * Runs a named, resumable reindex job over all entities of this type. Progress is checkpointed in the datastore after each batch,
+	 * so invoking this again with the same job id after an interruption resumes from the last completed batch.
+	 * 
+	 * @param jobId a unique name for the reindex job
+	 * @param batchSize
+	 * @param maxInFlight the maximum number of batches being saved and indexed at any time
+	 * @param reindexOperation
+	 * @return the final checkpoint of the job
+	 */
+	public ReindexCheckpoint reindex(String jobId, int batchSize, int maxInFlight, ReindexOperation<E> reindexOperation);
+
+	/**
+	 * Reindexes all entities of this type by splitting them into key range shards, and enqueuing a task to reindex each shard.
+	 * Each shard is run as a resumable reindex job. The given {@link ReindexOperation}, if present, must be serializable.
+	 * 
+	 * @param jobId a unique name for the reindex job
+	 * @param shards the number of shards to split the reindex into
+	 * @param batchSize
+	 * @param reindexOperation
+	 * @return the job ids of each shard
+	 */
+	public List<String> reindexInShards(String jobId, int shards, int batchSize, ReindexOperation<E> reindexOperation);
+
 	public static class Transformers {
 		public static final ETransformer<Long, String> IdToString = new ETransformer<Long, String>() {
 			@Override
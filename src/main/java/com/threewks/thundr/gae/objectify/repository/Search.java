@@ -17,6 +17,7 @@
  */
 package com.threewks.thundr.gae.objectify.repository;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -45,10 +46,69 @@ public class Search<E extends RepositoryEntity> {
 		return repository.completeIdSearch(this);
 	}
 
+	/**
+	 * Performs the search, returning a single page of results along with the cursor of the following page.
+	 * If no cursor has been applied with {@link #cursor(String)}, the first page is returned.
+	 * 
+	 * @return
+	 */
+	public SearchPage<E> searchPage() {
+		return repository.completeSearchPage(this);
+	}
+
+	/**
+	 * Performs the search page by page using search cursors, loading the entities of each page as it is reached. The following page is
+	 * searched for while the current page is processed. Each page contains up to {@link #limit()} results, or
+	 * {@link com.threewks.thundr.search.google.SearchRequest#DefaultPageSize} if no limit has been applied.
+	 * 
+	 * @return an iterator over every matching entity
+	 */
+	public Iterator<E> stream() {
+		return repository.completeSearchStream(this);
+	}
+
+	/**
+	 * Starts the search without waiting for it to complete. The entities are loaded when the result is completed, which allows
+	 * several searches to be in progress at once.
+	 * 
+	 * @return an async result which returns the matching entities
+	 */
+	public AsyncResult<List<E>> searchAsync() {
+		return repository.completeSearchAsync(this);
+	}
+
+	/**
+	 * Starts the search without waiting for it to complete.
+	 * 
+	 * @return an async result which returns the ids of the matching entities
+	 */
+	public AsyncResult<List<Long>> searchIdsAsync() {
+		return repository.completeIdSearchAsync(this);
+	}
+
+	/**
+	 * @return the number of entities matching the search, without loading them
+	 */
+	public long count() {
+		return searchRequest.count();
+	}
+
+	/**
+	 * @param accuracy the number of matching entities up to which the count is accurate
+	 * @return the number of entities matching the search, without loading them
+	 */
+	public long count(int accuracy) {
+		return searchRequest.count(accuracy);
+	}
+
 	public int reindex(int batchSize, ReindexOperation<E> reindexOp) {
 		return repository.reindex(this, batchSize, reindexOp);
 	}
 
+	public int reindex(int batchSize, int maxInFlight, ReindexOperation<E> reindexOp) {
+		return repository.reindex(this, batchSize, maxInFlight, reindexOp);
+	}
+
 	public Search<E> query(CharSequence query) {
 		searchRequest.query(query);
 		return this;
@@ -64,6 +124,17 @@ public class Search<E extends RepositoryEntity> {
 		return this;
 	}
 
+	/**
+	 * Pages through results using search cursors rather than an offset, so that the cost of a page does not depend on its depth.
+	 * 
+	 * @param cursor a cursor returned by {@link SearchPage#cursor()}, or null for the first page
+	 * @return
+	 */
+	public Search<E> cursor(String cursor) {
+		searchRequest.cursor(cursor);
+		return this;
+	}
+
 	public SearchOperation<E> field(String field) {
 		return new SearchOperation<E>(this, searchRequest.field(field));
 	}
@@ -88,6 +159,10 @@ public class Search<E extends RepositoryEntity> {
 		return searchRequest.offset();
 	}
 
+	public String cursor() {
+		return searchRequest.cursor();
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		return EqualsBuilder.reflectionEquals(this, obj);
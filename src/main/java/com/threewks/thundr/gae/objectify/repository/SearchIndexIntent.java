@@ -0,0 +1,71 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.Date;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * Records that the search index entry of an entity needs to be brought up to date with the datastore. Intents are
+ * children of the entity they refer to, so they can be written in the same transaction as the entity.
+ * 
+ * @see BaseRepository#setIndexOutbox(boolean)
+ * @see BaseRepository#drainIndexOutbox(int)
+ */
+@Entity
+public class SearchIndexIntent {
+	@Parent private Key<?> entity;
+	@Id private Long id;
+	@Index private String entityType;
+	private Long entityId;
+	private Date created;
+
+	protected SearchIndexIntent() {
+	}
+
+	public SearchIndexIntent(Class<?> entityType, Long entityId) {
+		this.entity = Key.create(entityType, entityId);
+		this.entityType = entityType.getName();
+		this.entityId = entityId;
+		this.created = new Date();
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	/**
+	 * @return the class name of the entity type to index
+	 */
+	public String getEntityType() {
+		return entityType;
+	}
+
+	public Long getEntityId() {
+		return entityId;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+}
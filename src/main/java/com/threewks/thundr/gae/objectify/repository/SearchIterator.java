@@ -0,0 +1,76 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.threewks.thundr.search.google.SearchResult;
+
+/**
+ * Iterates over every entity matching a {@link Search}, a page at a time. The search for the following page is
+ * in progress while the entities of the current page are loaded and processed.
+ * 
+ * To keep memory bounded over very large result sets, the objectify session is cleared before each page is loaded,
+ * in the same way as a reindex, so only the current page is retained by the session. Entities loaded before iterating
+ * are therefore not retained in the session either. The session is not cleared within a transaction.
+ * 
+ * @see Search#stream()
+ */
+public class SearchIterator<E extends RepositoryEntity> implements Iterator<E> {
+	private BaseRepository<E> repository;
+	private Iterator<SearchResult<E>> pages;
+	private Iterator<E> current = Collections.<E> emptyList().iterator();
+
+	public SearchIterator(BaseRepository<E> repository, Iterator<SearchResult<E>> pages) {
+		this.repository = repository;
+		this.pages = pages;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!current.hasNext() && pages.hasNext()) {
+			SearchResult<E> page = pages.next();
+			if (ofy().getTxn() == null) {
+				ofy().clear();
+			}
+			List<E> entities = new ArrayList<E>(repository.hydrateAsync(repository.searchResultIds(page)).complete());
+			entities.removeAll(Collections.singleton(null));
+			current = entities.iterator();
+		}
+		return current.hasNext();
+	}
+
+	@Override
+	public E next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Search results cannot be removed");
+	}
+}
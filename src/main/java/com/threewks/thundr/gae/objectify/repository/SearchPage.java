@@ -0,0 +1,65 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import java.util.List;
+
+/**
+ * A single page of entities returned by a cursor paged {@link Search}.
+ * 
+ * @see Search#cursor(String)
+ */
+public class SearchPage<E extends RepositoryEntity> {
+	private List<E> results;
+	private String cursor;
+	private long matchingRecordCount;
+
+	public SearchPage(List<E> results, String cursor, long matchingRecordCount) {
+		this.results = results;
+		this.cursor = cursor;
+		this.matchingRecordCount = matchingRecordCount;
+	}
+
+	/**
+	 * @return the entities on this page
+	 */
+	public List<E> results() {
+		return results;
+	}
+
+	/**
+	 * @return the web safe cursor of the following page, or null if this is the last page
+	 */
+	public String cursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return true if there is a page following this one
+	 */
+	public boolean hasMore() {
+		return cursor != null;
+	}
+
+	/**
+	 * @return the (approximate) total number of entities matching the search
+	 */
+	public long matchingRecordCount() {
+		return matchingRecordCount;
+	}
+}
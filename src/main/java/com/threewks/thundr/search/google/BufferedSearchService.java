@@ -0,0 +1,325 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.search.google;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.search.Document;
+import com.google.common.collect.Lists;
+import com.threewks.thundr.logger.Logger;
+
+/**
+ * A {@link SearchService} which buffers index and remove operations made within a scope, and sends them to the underlying
+ * {@link GoogleSearchService} as batched requests for each type.
+ * 
+ * A scope is started on the current thread using {@link #begin()}, and ended using {@link #end()}, which flushes any buffered operations.
+ * As threads are reused between requests, the scope should be tied to a request by running the request with {@link #run(Callable)},
+ * for example from a servlet filter, which ends the scope even if the request fails.
+ * Buffered operations are also flushed when the {@link IndexOperation} returned for any of them is completed, or when
+ * {@link GoogleSearchService#MaxDocumentsPerRequest} operations are buffered for a type.
+ * Outside of a scope, all operations are passed directly to the underlying {@link GoogleSearchService}.
+ * 
+ * The document for an indexed object is built when the operation is buffered, so changes made to the object afterwards are not indexed.
+ */
+public class BufferedSearchService implements SearchService {
+	private GoogleSearchService delegate;
+	private ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>();
+
+	public BufferedSearchService(GoogleSearchService delegate) {
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Starts buffering index operations on the current thread. Scopes do not nest - if a scope started earlier on the current
+	 * thread was never ended, its buffered operations are sent and a new scope is started.
+	 */
+	public void begin() {
+		Buffer stale = buffers.get();
+		if (stale != null) {
+			Logger.warn("A search buffer scope was not ended on this thread, sending its buffered operations before starting a new scope");
+			stale.flush();
+		}
+		buffers.set(new Buffer());
+	}
+
+	/**
+	 * Runs the given work in a new scope, which is ended once the work completes or fails.
+	 * 
+	 * @param work
+	 * @return the result of the work
+	 * @throws Exception if the work fails
+	 */
+	public <T> T run(Callable<T> work) throws Exception {
+		begin();
+		try {
+			return work.call();
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Flushes any buffered operations and ends the scope started on the current thread.
+	 * 
+	 * @return an index operation which completes all flushed operations
+	 */
+	public IndexOperation end() {
+		IndexOperation operation = flush();
+		buffers.remove();
+		return operation;
+	}
+
+	/**
+	 * Sends any operations buffered on the current thread, without ending the scope.
+	 * 
+	 * @return an index operation which completes all flushed operations
+	 */
+	public IndexOperation flush() {
+		Buffer buffer = buffers.get();
+		return buffer == null ? new IndexOperation((Future<?>) null) : buffer.flush();
+	}
+
+	/**
+	 * @return true if operations are being buffered on the current thread
+	 */
+	public boolean isBuffering() {
+		return buffers.get() != null;
+	}
+
+	@Override
+	public <T> IndexOperation index(T object, String id, Iterable<String> fields) {
+		Buffer buffer = buffers.get();
+		if (buffer == null) {
+			return delegate.index(object, id, fields);
+		}
+		Batch batch = buffer.index(object.getClass(), id, delegate.toDocument(object, id, Lists.newArrayList(fields)));
+		return new BufferedIndexOperation(buffer, Collections.singleton(batch));
+	}
+
+	@Override
+	public <T> IndexOperation index(Map<String, T> objects, Iterable<String> fields) {
+		Buffer buffer = buffers.get();
+		if (buffer == null) {
+			return delegate.index(objects, fields);
+		}
+		List<String> fieldList = Lists.newArrayList(fields);
+		Set<Batch> batches = new LinkedHashSet<Batch>();
+		for (Map.Entry<String, T> entry : objects.entrySet()) {
+			T object = entry.getValue();
+			batches.add(buffer.index(object.getClass(), entry.getKey(), delegate.toDocument(object, entry.getKey(), fieldList)));
+		}
+		return new BufferedIndexOperation(buffer, batches);
+	}
+
+	@Override
+	public <T> IndexOperation remove(Class<T> as, Iterable<String> ids) {
+		Buffer buffer = buffers.get();
+		if (buffer == null) {
+			return delegate.remove(as, ids);
+		}
+		Set<Batch> batches = new LinkedHashSet<Batch>();
+		for (String id : ids) {
+			batches.add(buffer.remove(as, id));
+		}
+		return new BufferedIndexOperation(buffer, batches);
+	}
+
+	/**
+	 * Any buffered operations for the given type are discarded, as the documents are removed anyway.
+	 */
+	@Override
+	public <T> int removeAll(Class<T> as) {
+		Buffer buffer = buffers.get();
+		if (buffer != null) {
+			buffer.discard(as);
+		}
+		return delegate.removeAll(as);
+	}
+
+	/**
+	 * Any buffered operations for the given type are flushed before the search request is created.
+	 */
+	@Override
+	public <T> SearchRequest<T> search(Class<T> type) {
+		Buffer buffer = buffers.get();
+		if (buffer != null) {
+			buffer.flush(type);
+		}
+		return delegate.search(type);
+	}
+
+	/**
+	 * The buffered operations for a scope, held for each type.
+	 */
+	private class Buffer {
+		private Map<Class<?>, TypeBuffer> types = new LinkedHashMap<Class<?>, TypeBuffer>();
+
+		public synchronized Batch index(Class<?> type, String id, Document document) {
+			TypeBuffer typeBuffer = typeBuffer(type);
+			typeBuffer.removes.remove(id);
+			typeBuffer.puts.put(id, document);
+			return flushIfFull(typeBuffer);
+		}
+
+		public synchronized Batch remove(Class<?> type, String id) {
+			TypeBuffer typeBuffer = typeBuffer(type);
+			typeBuffer.puts.remove(id);
+			typeBuffer.removes.add(id);
+			return flushIfFull(typeBuffer);
+		}
+
+		public synchronized IndexOperation flush() {
+			List<IndexOperation> operations = new ArrayList<IndexOperation>();
+			for (TypeBuffer typeBuffer : types.values()) {
+				operations.add(typeBuffer.flush());
+			}
+			return new CompositeIndexOperation(operations);
+		}
+
+		public synchronized void flush(Class<?> type) {
+			TypeBuffer typeBuffer = types.get(type);
+			if (typeBuffer != null) {
+				typeBuffer.flush();
+			}
+		}
+
+		public synchronized void discard(Class<?> type) {
+			TypeBuffer typeBuffer = types.remove(type);
+			if (typeBuffer != null) {
+				typeBuffer.batch.operation = new IndexOperation((Future<?>) null);
+			}
+		}
+
+		private Batch flushIfFull(TypeBuffer typeBuffer) {
+			Batch batch = typeBuffer.batch;
+			if (typeBuffer.puts.size() + typeBuffer.removes.size() >= GoogleSearchService.MaxDocumentsPerRequest) {
+				typeBuffer.flush();
+			}
+			return batch;
+		}
+
+		private TypeBuffer typeBuffer(Class<?> type) {
+			TypeBuffer typeBuffer = types.get(type);
+			if (typeBuffer == null) {
+				typeBuffer = new TypeBuffer(type);
+				types.put(type, typeBuffer);
+			}
+			return typeBuffer;
+		}
+	}
+
+	private class TypeBuffer {
+		private Class<?> type;
+		private Map<String, Document> puts = new LinkedHashMap<String, Document>();
+		private Set<String> removes = new LinkedHashSet<String>();
+		private Batch batch = new Batch();
+
+		public TypeBuffer(Class<?> type) {
+			this.type = type;
+		}
+
+		/**
+		 * Sends the buffered puts and removes for this type, which are disjoint so they can be sent concurrently.
+		 */
+		public IndexOperation flush() {
+			List<IndexOperation> operations = new ArrayList<IndexOperation>();
+			if (!puts.isEmpty()) {
+				operations.add(delegate.index(type, new ArrayList<Document>(puts.values())));
+			}
+			if (!removes.isEmpty()) {
+				operations.add(delegate.remove(type, removes));
+			}
+			batch.operation = new CompositeIndexOperation(operations);
+			IndexOperation operation = batch.operation;
+			puts = new LinkedHashMap<String, Document>();
+			removes = new LinkedHashSet<String>();
+			batch = new Batch();
+			return operation;
+		}
+	}
+
+	/**
+	 * The buffered operations which are sent together, and the operation which completes them once they have been sent.
+	 */
+	private static class Batch {
+		private volatile IndexOperation operation;
+	}
+
+	/**
+	 * Completes buffered operations, flushing the scope they were buffered in if they have not been sent yet.
+	 */
+	private static class BufferedIndexOperation extends IndexOperation {
+		private Buffer buffer;
+		private Collection<Batch> batches;
+
+		public BufferedIndexOperation(Buffer buffer, Collection<Batch> batches) {
+			super((Future<?>) null);
+			this.buffer = buffer;
+			this.batches = batches;
+		}
+
+		@Override
+		public void complete() {
+			List<IndexOperation> operations = new ArrayList<IndexOperation>();
+			for (Batch batch : batches) {
+				if (batch.operation == null) {
+					buffer.flush();
+				}
+				operations.add(batch.operation);
+			}
+			new CompositeIndexOperation(operations).complete();
+		}
+	}
+
+	private static class CompositeIndexOperation extends IndexOperation {
+		private List<IndexOperation> operations;
+
+		public CompositeIndexOperation(List<IndexOperation> operations) {
+			super((Future<?>) null);
+			this.operations = operations;
+		}
+
+		@Override
+		public void complete() {
+			SearchException failure = null;
+			for (IndexOperation operation : operations) {
+				try {
+					operation.complete();
+				} catch (SearchException e) {
+					if (failure == null) {
+						failure = e;
+					} else {
+						failure.addSuppressed(e);
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+}
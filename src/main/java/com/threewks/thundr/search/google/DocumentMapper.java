@@ -0,0 +1,266 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.search.google;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import jodd.bean.BeanUtil;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field;
+import com.google.appengine.api.search.GeoPoint;
+
+/**
+ * Maps objects of a single type to search {@link Document}s for a fixed list of fields.
+ * 
+ * The accessor and the kind of search field for each property are resolved once when the mapper is created, so
+ * building a document only reads each property and sets it on the field builder.
+ */
+public class DocumentMapper {
+	private static final MethodType AccessorType = MethodType.methodType(Object.class, Object.class);
+
+	private List<FieldMapping> mappings = new ArrayList<FieldMapping>();
+
+	public DocumentMapper(Class<?> type, Iterable<String> fields) {
+		for (String field : fields) {
+			mappings.add(createMapping(type, field));
+		}
+	}
+
+	public Document toDocument(String id, Object object) {
+		Document.Builder documentBuilder = Document.newBuilder();
+		documentBuilder.setId(id);
+		for (FieldMapping mapping : mappings) {
+			Object value = mapping.accessor.get(object);
+			if (value != null) {
+				try {
+					Field.Builder fieldBuilder = Field.newBuilder().setName(mapping.name);
+					mapping.kind.set(fieldBuilder, value);
+					documentBuilder.addField(fieldBuilder.build());
+				} catch (Exception e) {
+					throw new SearchException(e, "Failed to add field '%s' with value '%s' to document with id '%s': %s", mapping.field, value.toString(), id, e.getMessage());
+				}
+			}
+		}
+		return documentBuilder.build();
+	}
+
+	/**
+	 * @param object
+	 * @return the value of each mapped field of the given object, in the order the fields were given
+	 */
+	public List<Object> values(Object object) {
+		List<Object> values = new ArrayList<Object>(mappings.size());
+		for (FieldMapping mapping : mappings) {
+			values.add(mapping.accessor.get(object));
+		}
+		return values;
+	}
+
+	private FieldMapping createMapping(Class<?> type, String field) {
+		String name = SearchRequest.encodeFieldName(field);
+		// nested and indexed properties are left to bean util to resolve
+		if (!StringUtils.containsAny(field, ".[")) {
+			Method getter = findGetter(type, field);
+			if (getter != null) {
+				return new FieldMapping(field, name, handleAccessor(getter), kindOf(getter.getReturnType()));
+			}
+			java.lang.reflect.Field javaField = findField(type, field);
+			if (javaField != null) {
+				return new FieldMapping(field, name, handleAccessor(javaField), kindOf(javaField.getType()));
+			}
+		}
+		return new FieldMapping(field, name, new BeanUtilAccessor(field), FieldKind.Dynamic);
+	}
+
+	private Accessor handleAccessor(AccessibleObject member) {
+		try {
+			member.setAccessible(true);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle handle = member instanceof Method ? lookup.unreflect((Method) member) : lookup.unreflectGetter((java.lang.reflect.Field) member);
+			return new MethodHandleAccessor(handle.asType(AccessorType));
+		} catch (Exception e) {
+			throw new SearchException(e, "Unable to access '%s' for indexing: %s", member, e.getMessage());
+		}
+	}
+
+	private Method findGetter(Class<?> type, String field) {
+		String capitalized = StringUtils.capitalize(field);
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			for (Method method : current.getDeclaredMethods()) {
+				String methodName = method.getName();
+				boolean isGetterName = methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized);
+				if (isGetterName && method.getParameterTypes().length == 0 && !Modifier.isStatic(method.getModifiers())) {
+					return method;
+				}
+			}
+		}
+		return null;
+	}
+
+	private java.lang.reflect.Field findField(Class<?> type, String field) {
+		for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+			for (java.lang.reflect.Field javaField : current.getDeclaredFields()) {
+				if (javaField.getName().equals(field) && !Modifier.isStatic(javaField.getModifiers())) {
+					return javaField;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the kind of search field from the declared type where the declared type determines it. Otherwise the kind is determined
+	 * from each value as it is indexed.
+	 */
+	static FieldKind kindOf(Class<?> type) {
+		if (String.class.equals(type)) {
+			return FieldKind.Text;
+		}
+		if (GeoPoint.class.isAssignableFrom(type)) {
+			return FieldKind.GeoPoint;
+		}
+		if (Date.class.isAssignableFrom(type)) {
+			return FieldKind.Date;
+		}
+		if (DateTime.class.isAssignableFrom(type)) {
+			return FieldKind.DateTime;
+		}
+		if (Number.class.isAssignableFrom(type) || (type.isPrimitive() && type != boolean.class && type != char.class)) {
+			return FieldKind.Number;
+		}
+		if (Collection.class.isAssignableFrom(type)) {
+			return FieldKind.Collection;
+		}
+		if (type.isPrimitive() || type.isEnum() || Modifier.isFinal(type.getModifiers())) {
+			return FieldKind.Text;
+		}
+		return FieldKind.Dynamic;
+	}
+
+	enum FieldKind {
+		Text {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				builder.setText(value.toString());
+			}
+		},
+		GeoPoint {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				builder.setGeoPoint((com.google.appengine.api.search.GeoPoint) value);
+			}
+		},
+		Date {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				builder.setDate((java.util.Date) value);
+			}
+		},
+		DateTime {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				builder.setDate(((org.joda.time.DateTime) value).toDate());
+			}
+		},
+		Number {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				builder.setNumber(((java.lang.Number) value).doubleValue());
+			}
+		},
+		Collection {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				builder.setText(StringUtils.join(((java.util.Collection<?>) value).toArray(), " "));
+			}
+		},
+		Dynamic {
+			@Override
+			void set(Field.Builder builder, Object value) {
+				FieldKind kind = kindOf(value.getClass());
+				(kind == Dynamic ? Text : kind).set(builder, value);
+			}
+		};
+
+		abstract void set(Field.Builder builder, Object value);
+	}
+
+	private static class FieldMapping {
+		private String field;
+		private String name;
+		private Accessor accessor;
+		private FieldKind kind;
+
+		public FieldMapping(String field, String name, Accessor accessor, FieldKind kind) {
+			this.field = field;
+			this.name = name;
+			this.accessor = accessor;
+			this.kind = kind;
+		}
+	}
+
+	private interface Accessor {
+		public Object get(Object object);
+	}
+
+	private static class MethodHandleAccessor implements Accessor {
+		private MethodHandle handle;
+
+		public MethodHandleAccessor(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		public Object get(Object object) {
+			try {
+				return (Object) handle.invokeExact(object);
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				// consistent with reading properties silently, a property which cannot be read is not indexed
+				return null;
+			}
+		}
+	}
+
+	private static class BeanUtilAccessor implements Accessor {
+		private String field;
+
+		public BeanUtilAccessor(String field) {
+			this.field = field;
+		}
+
+		@Override
+		public Object get(Object object) {
+			return BeanUtil.getDeclaredPropertySilently(object, field);
+		}
+	}
+}
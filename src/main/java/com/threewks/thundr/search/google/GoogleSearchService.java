@@ -18,28 +18,19 @@
 package com.threewks.thundr.search.google;
 
 import java.lang.reflect.Method;
-import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 
-import jodd.bean.BeanUtil;
-
 import org.apache.commons.lang3.StringUtils;
-import org.joda.time.DateTime;
 
-import com.atomicleopard.expressive.Cast;
 import com.atomicleopard.expressive.collection.Pair;
 import com.atomicleopard.expressive.collection.Triplets;
+import com.google.appengine.api.search.Cursor;
 import com.google.appengine.api.search.Document;
-import com.google.appengine.api.search.Document.Builder;
-import com.google.appengine.api.search.Field;
-import com.google.appengine.api.search.GeoPoint;
 import com.google.appengine.api.search.GetRequest;
 import com.google.appengine.api.search.GetResponse;
 import com.google.appengine.api.search.Index;
@@ -52,10 +43,24 @@ import com.google.appengine.api.search.ScoredDocument;
 import com.google.appengine.api.search.SearchServiceFactory;
 import com.google.appengine.api.search.SortExpression;
 import com.google.appengine.api.search.SortOptions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.threewks.thundr.logger.Logger;
 
 public class GoogleSearchService implements SearchService {
+	/**
+	 * The maximum number of documents which can be put to or deleted from an index in a single request
+	 */
+	public static final int MaxDocumentsPerRequest = 200;
+	/**
+	 * The maximum number of results which can be returned by a single search
+	 */
+	public static final int MaxResultsPerSearch = 1000;
+
 	private com.google.appengine.api.search.SearchService searchService = SearchServiceFactory.getSearchService();
+	private ConcurrentMap<Class<?>, Index> indexes = new ConcurrentHashMap<Class<?>, Index>();
+	private Triplets<Class<?>, List<String>, DocumentMapper> documentMappers = new Triplets<Class<?>, List<String>, DocumentMapper>(
+			new ConcurrentHashMap<Pair<Class<?>, List<String>>, DocumentMapper>());
 
 	public GoogleSearchService() {
 	}
@@ -64,50 +69,75 @@ public class GoogleSearchService implements SearchService {
 	public <T> IndexOperation index(T object, String id, Iterable<String> fields) {
 		Class<T> as = getType(object);
 		Index index = getIndex(as);
-		Map<String, Object> map = extractSearchableFields(object, fields);
-		Document document = buildDocument(id, map);
+		Document document = getDocumentMapper(as, Lists.newArrayList(fields)).toDocument(id, object);
 		Future<PutResponse> putAsync = index.putAsync(document);
 		return new IndexOperation(putAsync);
 	}
 
 	@Override
 	public <T> IndexOperation index(Map<String, T> objects, Iterable<String> fields) {
-		Future<PutResponse> future = null;
-		if (!objects.isEmpty()) {
-			String first = objects.keySet().iterator().next();
-			T t = objects.get(first);
-			Class<T> as = getType(t);
-			Index index = getIndex(as);
+		if (objects.isEmpty()) {
+			return new IndexOperation(new ArrayList<Future<PutResponse>>());
+		}
+		String first = objects.keySet().iterator().next();
+		Class<T> as = getType(objects.get(first));
 
-			List<Document> documents = new ArrayList<Document>(objects.size());
-			for (Map.Entry<String, T> entry : objects.entrySet()) {
-				String id = entry.getKey();
-				T object = entry.getValue();
-				Map<String, Object> fieldValues = extractSearchableFields(object, fields);
-				Document document = buildDocument(id, fieldValues);
-				documents.add(document);
-			}
-			future = index.putAsync(documents);
+		List<String> fieldList = Lists.newArrayList(fields);
+		List<Document> documents = new ArrayList<Document>(objects.size());
+		for (Map.Entry<String, T> entry : objects.entrySet()) {
+			documents.add(toDocument(entry.getValue(), entry.getKey(), fieldList));
 		}
+		return index(as, documents);
+	}
 
-		return new IndexOperation(future);
+	/**
+	 * Index documents which have already been built, for example by {@link #toDocument(Object, String, List)}.
+	 * 
+	 * @param as the type the documents were built from, which determines the index they are put to
+	 * @param documents
+	 * @return
+	 */
+	public <T> IndexOperation index(Class<T> as, List<Document> documents) {
+		Index index = getIndex(as);
+		List<Future<PutResponse>> futures = new ArrayList<Future<PutResponse>>();
+		// the search api limits the number of documents in a single put, so larger sets are put in concurrent batches
+		for (List<Document> batch : Lists.partition(documents, MaxDocumentsPerRequest)) {
+			futures.add(index.putAsync(batch));
+		}
+		return new IndexOperation(futures);
+	}
+
+	/**
+	 * Builds the document for the given object, reading the current values of the given fields.
+	 * 
+	 * @param object
+	 * @param id
+	 * @param fields
+	 * @return
+	 */
+	public Document toDocument(Object object, String id, List<String> fields) {
+		return getDocumentMapper(object.getClass(), fields).toDocument(id, object);
 	}
 
 	@Override
 	public <T> IndexOperation remove(Class<T> as, Iterable<String> ids) {
 		Index index = getIndex(as);
-		Future<Void> deleteAsync = index.deleteAsync(ids);
-		return new IndexOperation(deleteAsync);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		// the search api limits the number of documents in a single delete, so larger sets are deleted in concurrent batches
+		for (List<String> batch : Iterables.partition(ids, MaxDocumentsPerRequest)) {
+			futures.add(index.deleteAsync(batch));
+		}
+		return new IndexOperation(futures);
 	}
 
 	@Override
 	public <T> int removeAll(Class<T> as) {
 		int count = 0;
 		Index index = getIndex(as);
-		GetRequest request = GetRequest.newBuilder().setReturningIdsOnly(true).setLimit(200).build();
+		GetRequest request = GetRequest.newBuilder().setReturningIdsOnly(true).setLimit(MaxDocumentsPerRequest).build();
 		GetResponse<Document> response = index.getRange(request);
 
-		// can only delete documents in blocks of 200 so we need to iterate until they're all gone
+		// can only delete documents in blocks of MaxDocumentsPerRequest so we need to iterate until they're all gone
 		while (!response.getResults().isEmpty()) {
 			List<String> ids = new ArrayList<String>();
 			for (Document document : response) {
@@ -126,6 +156,16 @@ public class GoogleSearchService implements SearchService {
 	}
 
 	protected <T> SearchResult<T> createSearchResult(SearchRequest<T> searchRequest, Class<T> type) {
+		return createSearchResult(searchRequest, type, false);
+	}
+
+	/**
+	 * @param searchRequest
+	 * @param type
+	 * @param idsOnly if true, the search only returns document ids and not their fields
+	 * @return
+	 */
+	protected <T> SearchResult<T> createSearchResult(SearchRequest<T> searchRequest, Class<T> type, boolean idsOnly) {
 		String queryString = StringUtils.join(searchRequest.query(), " ");
 
 		Index index = getIndex(type);
@@ -143,12 +183,23 @@ public class GoogleSearchService implements SearchService {
 
 		QueryOptions.Builder queryOptions = QueryOptions.newBuilder();
 		queryOptions.setSortOptions(sortOptions);
+		queryOptions.setReturningIdsOnly(idsOnly);
 		Integer limit = searchRequest.limit();
-		int offset = 0;
-		if (limit != null) {
-			offset = searchRequest.offset() == null ? 0 : searchRequest.offset();
+		Integer offset = searchRequest.offset();
+		if (searchRequest.isCursorPaging()) {
+			if (offset != null) {
+				Logger.warn("The offset %d is ignored when paging search results using a cursor", offset);
+			}
+			String cursor = searchRequest.cursor();
+			queryOptions.setCursor(cursor == null ? Cursor.newBuilder().build() : Cursor.newBuilder().build(cursor));
+			offset = null;
+			if (limit != null) {
+				queryOptions = queryOptions.setLimit(limit);
+			}
+		} else if (limit != null) {
+			offset = offset == null ? 0 : offset;
 			int effectiveLimit = limit + offset;
-			if (effectiveLimit > 1000) {
+			if (effectiveLimit > MaxResultsPerSearch) {
 				Logger.warn("Currently the Google Search API does not support queries with a limit over 1000. With an offset of %d and a limit of %d, you have an effective limit of %d", offset,
 						limit, effectiveLimit);
 			}
@@ -159,27 +210,49 @@ public class GoogleSearchService implements SearchService {
 		Query query = Query.newBuilder().setOptions(queryOptions).build(queryString);
 		Future<Results<ScoredDocument>> searchAsync = index.searchAsync(query);
 		Logger.debug("Text search on %s: %s", index.getName(), queryString);
-		return new SearchResult<T>(type, searchAsync, searchRequest.offset());
+		return new SearchResult<T>(type, searchAsync, offset);
 	}
 
-	protected <T> Index getIndex(Class<T> type) {
-		String indexName = type.getName().replaceAll("\\.", "-");
-		return searchService.getIndex(IndexSpec.newBuilder().setName(indexName));
+	/**
+	 * Counts the documents matching the given search request, without fetching them.
+	 * 
+	 * @param searchRequest
+	 * @param type
+	 * @param accuracy the minimum number of matches which are counted accurately, or null for the search service default
+	 * @return the number of matching documents
+	 */
+	protected <T> long count(SearchRequest<T> searchRequest, Class<T> type, Integer accuracy) {
+		String queryString = StringUtils.join(searchRequest.query(), " ");
+		Index index = getIndex(type);
+		// the search api requires a limit of at least 1
+		QueryOptions.Builder queryOptions = QueryOptions.newBuilder().setReturningIdsOnly(true).setLimit(1);
+		if (accuracy != null) {
+			queryOptions = queryOptions.setNumberFoundAccuracy(accuracy);
+		}
+		Query query = Query.newBuilder().setOptions(queryOptions).build(queryString);
+		Future<Results<ScoredDocument>> searchAsync = index.searchAsync(query);
+		Logger.debug("Text search count on %s: %s", index.getName(), queryString);
+		return new SearchResult<T>(type, searchAsync, null).getMatchingRecordCount();
 	}
 
-	private BigDecimal getAsNumber(Object value) {
-		if (value instanceof Number) {
-			return new BigDecimal(((Number) value).doubleValue());
+	/**
+	 * Index handles are cached per type, so the index name and {@link IndexSpec} are only built once for each type.
+	 * 
+	 * @param type
+	 * @return the index documents of the given type are stored in
+	 */
+	protected <T> Index getIndex(Class<T> type) {
+		Index index = indexes.get(type);
+		if (index == null) {
+			index = searchService.getIndex(IndexSpec.newBuilder().setName(getIndexName(type)));
+			Index existing = indexes.putIfAbsent(type, index);
+			index = existing == null ? index : existing;
 		}
-		return null;
+		return index;
 	}
 
-	private String getAsCollection(Object value) {
-		Collection<?> collection = Cast.as(value, Collection.class);
-		if (collection != null) {
-			return StringUtils.join(collection.toArray(), " ");
-		}
-		return null;
+	protected String getIndexName(Class<?> type) {
+		return type.getName().replaceAll("\\.", "-");
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -238,68 +311,20 @@ public class GoogleSearchService implements SearchService {
 		return isNumeric;
 	}
 
-	// TODO - Search Service abstraction - type mapping and conversion between input data and what is supported in
-	// the search API is a wider problem. A full type conversion strategy would be useful here.
-	private Date getAsDate(Object value) {
-		if (value instanceof Date) {
-			return (Date) value;
-		}
-		if (value instanceof DateTime) {
-			return ((DateTime) value).toDate();
-		}
-		return null;
-	}
-
-	private <T> Map<String, Object> extractSearchableFields(T object, Iterable<String> fields) {
-		Map<String, Object> map = new LinkedHashMap<String, Object>();
-		for (String field : fields) {
-			Object value = BeanUtil.getDeclaredPropertySilently(object, field);
-			map.put(field, value);
-		}
-		return map;
-	}
-
-	private <T> Document buildDocument(String id, Map<String, Object> fields) {
-		Builder documentBuilder = Document.newBuilder();
-		documentBuilder.setId(id);
-		for (Map.Entry<String, Object> fieldData : fields.entrySet()) {
-			Object value = fieldData.getValue();
-			String fieldName = fieldData.getKey();
-			if (value != null) {
-				try {
-					Field field = buildField(fieldName, value);
-					documentBuilder.addField(field);
-				} catch (Exception e) {
-					throw new SearchException(e, "Failed to add field '%s' with value '%s' to document with id '%s': %s", fieldName, value.toString(), id, e.getMessage());
-				}
-			}
-		}
-
-		return documentBuilder.build();
-	}
-
-	private Field buildField(String field, Object value) {
-		field = SearchRequest.encodeFieldName(field);
-		com.google.appengine.api.search.Field.Builder fieldBuilder = Field.newBuilder().setName(field);
-
-		String stringVal = Cast.as(value, String.class);
-		GeoPoint geoPointVal = stringVal != null ? null : Cast.as(value, GeoPoint.class);
-		Date dateVal = geoPointVal != null ? null : getAsDate(value);
-		BigDecimal numberVal = dateVal != null ? null : getAsNumber(value);
-		String collectionVal = numberVal != null ? null : getAsCollection(value);
-
-		if (dateVal != null) {
-			fieldBuilder.setDate(dateVal);
-		} else if (numberVal != null) {
-			fieldBuilder.setNumber(numberVal.doubleValue());
-		} else if (collectionVal != null) {
-			fieldBuilder.setText(collectionVal);
-		} else if (geoPointVal != null) {
-			fieldBuilder.setGeoPoint(geoPointVal);
-		} else {
-			fieldBuilder.setText(value.toString());
+	/**
+	 * Document mappers are compiled once for each type and list of fields, so indexing doesn't need to reflect over each object.
+	 * 
+	 * @param type
+	 * @param fields
+	 * @return the mapper which builds documents for the given type and fields
+	 */
+	protected DocumentMapper getDocumentMapper(Class<?> type, List<String> fields) {
+		DocumentMapper documentMapper = documentMappers.get(type, fields);
+		if (documentMapper == null) {
+			documentMapper = new DocumentMapper(type, fields);
+			documentMappers.put(type, fields, documentMapper);
 		}
-		return fieldBuilder.build();
+		return documentMapper;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -17,26 +17,60 @@
  */
 package com.threewks.thundr.search.google;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 public class IndexOperation {
 
-	private Future<?> future;
+	private List<Future<?>> futures;
 
 	public IndexOperation(Future<?> future2) {
-		this.future = future2;
+		this.futures = future2 == null ? Collections.<Future<?>> emptyList() : Collections.<Future<?>> singletonList(future2);
 	}
 
+	/**
+	 * Creates an index operation which completes all of the given futures, for example when a request has been split into batches.
+	 * 
+	 * @param futures
+	 */
+	public IndexOperation(List<? extends Future<?>> futures) {
+		this.futures = new ArrayList<Future<?>>(futures.size());
+		for (Future<?> future : futures) {
+			if (future != null) {
+				this.futures.add(future);
+			}
+		}
+	}
+
+	/**
+	 * Waits for all underlying operations to complete. If any fail, a {@link SearchException} is thrown whose cause is the first
+	 * failure, with any other failures added as suppressed exceptions.
+	 */
 	public void complete() {
-		if (future != null) {
+		List<Exception> failures = new ArrayList<Exception>();
+		for (Future<?> future : futures) {
 			try {
 				future.get();
 			} catch (ExecutionException e) {
-				throw new SearchException(e, "Failed to complete search index operation: %s", e.getMessage());
+				failures.add(e);
 			} catch (InterruptedException e) {
-				throw new SearchException(e, "Failed to complete search index operation: %s", e.getMessage());
+				failures.add(e);
+			}
+		}
+		if (failures.size() == 1) {
+			Exception e = failures.get(0);
+			throw new SearchException(e, "Failed to complete search index operation: %s", e.getMessage());
+		}
+		if (failures.size() > 1) {
+			Exception e = failures.get(0);
+			SearchException exception = new SearchException(e, "Failed to complete %d of %d search index operations: %s", failures.size(), futures.size(), e.getMessage());
+			for (Exception other : failures.subList(1, failures.size())) {
+				exception.addSuppressed(other);
 			}
+			throw exception;
 		}
 	}
 }
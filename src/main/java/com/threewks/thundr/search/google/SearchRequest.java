@@ -18,6 +18,7 @@
 package com.threewks.thundr.search.google;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
@@ -31,12 +32,19 @@ import org.apache.commons.lang3.StringUtils;
  * @param <T>
  */
 public class SearchRequest<T> {
+	/**
+	 * The number of results fetched per page when streaming a search with no limit
+	 */
+	public static final int DefaultPageSize = 100;
+
 	private Class<T> type;
 	private GoogleSearchService searchService;
 	private List<String> queryFragments = new ArrayList<String>();
 	private List<Sort> sortOrder = new ArrayList<Sort>();
 	private Integer limit;
 	private Integer offset;
+	private boolean cursorPaging;
+	private String cursor;
 
 	public SearchRequest(GoogleSearchService searchService, Class<T> type) {
 		this.searchService = searchService;
@@ -77,6 +85,22 @@ public class SearchRequest<T> {
 		return this;
 	}
 
+	/**
+	 * Pages through results using search cursors rather than an offset. Each search returns at most {@link #limit()} results
+	 * starting from the given cursor, and the cursor for the following page is available from {@link SearchResult#cursor()}.
+	 * Unlike an offset, the cost of fetching a page does not grow with the depth of the page.
+	 * 
+	 * When paging with a cursor, any offset is ignored.
+	 * 
+	 * @param cursor a web safe cursor returned by a previous search, or null to fetch the first page
+	 * @return
+	 */
+	public SearchRequest<T> cursor(String cursor) {
+		this.cursorPaging = true;
+		this.cursor = cursor;
+		return this;
+	}
+
 	/**
 	 * Defines a search operation on the given field to apply to the current search. The operation is specified on the returned {@link SearchOperation} instance.
 	 * 
@@ -112,6 +136,71 @@ public class SearchRequest<T> {
 		return searchService.createSearchResult(this, type);
 	}
 
+	/**
+	 * Performs the search operation as {@link #search()} does, but only the ids of matching documents are returned. This is cheaper
+	 * than a full search when only {@link SearchResult#getSearchResultIds()} is required.
+	 * 
+	 * @return
+	 */
+	public SearchResult<T> searchIds() {
+		return searchService.createSearchResult(this, type, true);
+	}
+
+	/**
+	 * Counts the results matching this search request without fetching them. Sort orders, limits, offsets and cursors are ignored.
+	 * 
+	 * @return the number of matching results, which is only accurate up to the search service's default accuracy
+	 */
+	public long count() {
+		return searchService.count(this, type, null);
+	}
+
+	/**
+	 * Counts the results matching this search request without fetching them. Sort orders, limits, offsets and cursors are ignored.
+	 * 
+	 * @param accuracy the number of matching results up to which the count is accurate
+	 * @return the number of matching results
+	 */
+	public long count(int accuracy) {
+		return searchService.count(this, type, accuracy);
+	}
+
+	/**
+	 * Performs the search operation page by page using search cursors, starting from the current {@link #cursor()}. Each page contains
+	 * up to {@link #limit()} results, or {@link #DefaultPageSize} if no limit has been applied. The following page is fetched while the
+	 * current page is processed.
+	 * 
+	 * The pages are fetched using a copy of this request, so this request is not modified.
+	 * 
+	 * @return an iterator over every page of results
+	 */
+	public Iterator<SearchResult<T>> stream() {
+		return new SearchResultIterator<T>(searchService, this, type, false);
+	}
+
+	/**
+	 * Performs the search operation page by page as {@link #stream()} does, but only the ids of matching documents are returned.
+	 * 
+	 * @return an iterator over every page of results
+	 */
+	public Iterator<SearchResult<T>> streamIds() {
+		return new SearchResultIterator<T>(searchService, this, type, true);
+	}
+
+	/**
+	 * @return a copy of this search request, which can be modified without affecting this request
+	 */
+	public SearchRequest<T> copy() {
+		SearchRequest<T> copy = new SearchRequest<T>(searchService, type);
+		copy.queryFragments.addAll(queryFragments);
+		copy.sortOrder.addAll(sortOrder);
+		copy.limit = limit;
+		copy.offset = offset;
+		copy.cursorPaging = cursorPaging;
+		copy.cursor = cursor;
+		return copy;
+	}
+
 	/**
 	 * @return the ordered series of query fragments that were specified on this search request
 	 */
@@ -140,6 +229,20 @@ public class SearchRequest<T> {
 		return offset;
 	}
 
+	/**
+	 * @return the cursor applied to this search request, or null if none has been applied
+	 */
+	public String cursor() {
+		return cursor;
+	}
+
+	/**
+	 * @return true if this search request pages through results using cursors
+	 */
+	public boolean isCursorPaging() {
+		return cursorPaging;
+	}
+
 	// package protected for testing
 	void sort(String field, boolean descending) {
 		field = encodeFieldName(field);
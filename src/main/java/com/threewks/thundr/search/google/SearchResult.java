@@ -30,6 +30,7 @@ import com.atomicleopard.expressive.EList;
 import com.atomicleopard.expressive.ETransformer;
 import com.atomicleopard.expressive.Expressive;
 import com.atomicleopard.expressive.transform.CollectionTransformer;
+import com.google.appengine.api.search.Cursor;
 import com.google.appengine.api.search.Field;
 import com.google.appengine.api.search.Field.FieldType;
 import com.google.appengine.api.search.Results;
@@ -74,8 +75,14 @@ public class SearchResult<T> {
 		return Math.max(0, results.getNumberFound() - offset());
 	}
 
+	/**
+	 * @return the web safe cursor for the page following these results, or null if there are no more results or the search was not
+	 *         paged using a cursor
+	 * @see SearchRequest#cursor(String)
+	 */
 	public String cursor() {
-		return results.getCursor().toWebSafeString();
+		Cursor cursor = results().getCursor();
+		return cursor == null ? null : cursor.toWebSafeString();
 	}
 
 	/**
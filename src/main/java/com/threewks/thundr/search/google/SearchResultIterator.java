@@ -0,0 +1,74 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.search.google;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over every page of results matching a {@link SearchRequest} using search cursors. When a page is returned,
+ * the search for the following page is started immediately, so that it is fetched while the current page is processed.
+ * 
+ * The iterator pages through a copy of the given request, so the page size and cursor of the given request are not modified.
+ * 
+ * @see SearchRequest#stream()
+ */
+public class SearchResultIterator<T> implements Iterator<SearchResult<T>> {
+	private GoogleSearchService searchService;
+	private SearchRequest<T> searchRequest;
+	private Class<T> type;
+	private boolean idsOnly;
+	private SearchResult<T> next;
+
+	public SearchResultIterator(GoogleSearchService searchService, SearchRequest<T> searchRequest, Class<T> type, boolean idsOnly) {
+		this.searchService = searchService;
+		this.searchRequest = searchRequest.copy();
+		this.type = type;
+		this.idsOnly = idsOnly;
+		if (this.searchRequest.limit() == null) {
+			this.searchRequest.limit(SearchRequest.DefaultPageSize);
+		}
+		this.next = search(this.searchRequest.cursor());
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	@Override
+	public SearchResult<T> next() {
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		SearchResult<T> current = next;
+		String cursor = current.cursor();
+		next = cursor == null ? null : search(cursor);
+		return current;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Search results cannot be removed");
+	}
+
+	private SearchResult<T> search(String cursor) {
+		searchRequest.cursor(cursor);
+		return searchService.createSearchResult(searchRequest, type, idsOnly);
+	}
+}
@@ -45,7 +45,7 @@ public interface SearchService {
 	public <T> IndexOperation index(Map<String, T> objects, Iterable<String> fields);
 	
 	/**
-	 * Remove objects from the index.
+	 * Remove objects from the index. Implementations should split large sets of ids into requests the underlying service supports.
 	 * 
 	 * @param as the type of the object.
 	 * @param ids the ids of the objects to remove.
@@ -33,6 +33,8 @@ import com.googlecode.objectify.impl.translate.opt.joda.LocalDateTimeTranslatorF
 import com.googlecode.objectify.impl.translate.opt.joda.LocalDateTranslatorFactory;
 import com.googlecode.objectify.impl.translate.opt.joda.LocalTimeTranslatorFactory;
 import com.googlecode.objectify.impl.translate.opt.joda.ReadableInstantTranslatorFactory;
+import com.threewks.thundr.gae.objectify.repository.ReindexCheckpoint;
+import com.threewks.thundr.gae.objectify.repository.SearchIndexIntent;
 import com.threewks.thundr.injection.InjectionContextImpl;
 import com.threewks.thundr.injection.UpdatableInjectionContext;
 import com.threewks.thundr.test.TestSupport;
@@ -55,6 +57,9 @@ public class ObjectifyModuleTest {
 		assertThat(factoriesContain(factories, LocalTimeTranslatorFactory.class), is(true));
 		assertThat(factoriesContain(factories, DateTimeZoneTranslatorFactory.class), is(true));
 
+		assertThat(ObjectifyService.factory().getMetadata(ReindexCheckpoint.class), is(notNullValue()));
+		assertThat(ObjectifyService.factory().getMetadata(SearchIndexIntent.class), is(notNullValue()));
+
 	}
 
 	private boolean factoriesContain(List<TranslatorFactory<?>> factories, Class<? extends TranslatorFactory<?>> class1) {
@@ -0,0 +1,212 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.atomicleopard.expressive.ETransformer;
+import com.googlecode.objectify.Result;
+import com.threewks.thundr.search.google.IndexOperation;
+
+public class AsyncResultsTest {
+
+	@Test
+	public void shouldCompleteAllResultsInOrder() {
+		List<AsyncResult<String>> results = list(AsyncResults.completed("one"), AsyncResults.completed("two"));
+		assertThat(AsyncResults.all(results).complete(), contains("one", "two"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldCompleteEveryResultAndRethrowASoleFailureUnchanged() {
+		AsyncResult<String> success = mock(AsyncResult.class);
+		final IllegalStateException failure = new IllegalStateException("failed");
+		AsyncResult<String> failed = new AsyncResult<String>() {
+			@Override
+			public String complete() {
+				throw failure;
+			}
+		};
+		List<AsyncResult<String>> results = list(success, failed);
+		try {
+			AsyncResults.all(results).complete();
+			fail("Expected exception");
+		} catch (IllegalStateException e) {
+			assertThat(e, is(sameInstance(failure)));
+		}
+		verify(success).complete();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldCompleteEveryResultAndReportAllFailures() {
+		AsyncResult<String> success = mock(AsyncResult.class);
+		List<AsyncResult<String>> results = list(failed("first"), success, failed("second"));
+		try {
+			AsyncResults.all(results).complete();
+			fail("Expected exception");
+		} catch (RepositoryException e) {
+			assertThat(e.getMessage(), is("2 of 3 operations failed: first"));
+			assertThat(e.getCause().getMessage(), is("first"));
+			assertThat(e.getSuppressed().length, is(1));
+			assertThat(e.getSuppressed()[0].getMessage(), is("second"));
+		}
+		verify(success).complete();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldAdaptObjectifyResult() {
+		Result<String> result = mock(Result.class);
+		when(result.now()).thenReturn("value");
+		AsyncResult<String> asyncResult = AsyncResults.from(result);
+		verify(result, never()).now();
+		assertThat(asyncResult.complete(), is("value"));
+	}
+
+	@Test
+	public void shouldAdaptIndexOperation() {
+		IndexOperation indexOperation = mock(IndexOperation.class);
+		AsyncResults.from(indexOperation).complete();
+		verify(indexOperation).complete();
+	}
+
+	@Test
+	public void shouldCompleteAllVarargResults() {
+		AsyncResult<List<String>> all = AsyncResults.all(AsyncResults.completed("one"), AsyncResults.completed("two"));
+		assertThat(all.complete(), contains("one", "two"));
+	}
+
+	@Test
+	public void shouldMapResultWhenCompleted() {
+		AsyncResult<Integer> mapped = AsyncResults.map(AsyncResults.completed("four"), new ETransformer<String, Integer>() {
+			@Override
+			public Integer from(String from) {
+				return from.length();
+			}
+		});
+		assertThat(mapped.complete(), is(4));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldChainResultAndOnlyStartFollowingOperationOnce() {
+		final AsyncResult<String> following = mock(AsyncResult.class);
+		when(following.complete()).thenReturn("following");
+		final List<String> startedWith = new ArrayList<String>();
+		AsyncResult<String> chained = AsyncResults.then(AsyncResults.completed("first"), new ETransformer<String, AsyncResult<String>>() {
+			@Override
+			public AsyncResult<String> from(String from) {
+				startedWith.add(from);
+				return following;
+			}
+		});
+
+		assertThat(startedWith.isEmpty(), is(true));
+		assertThat(chained.complete(), is("following"));
+		assertThat(chained.complete(), is("following"));
+		assertThat(startedWith, contains("first"));
+		verify(following, times(2)).complete();
+	}
+
+	@Test
+	public void shouldAdaptFuture() {
+		FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return "value";
+			}
+		});
+		future.run();
+		assertThat(AsyncResults.from(future).complete(), is("value"));
+	}
+
+	@Test
+	public void shouldThrowRepositoryExceptionWhenAdaptedFutureFails() {
+		FutureTask<String> future = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				throw new IllegalStateException("failed");
+			}
+		});
+		future.run();
+		try {
+			AsyncResults.from(future).complete();
+			fail("Expected exception");
+		} catch (RepositoryException e) {
+			assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+		}
+	}
+
+	@Test
+	public void shouldAdaptToFuture() throws Exception {
+		Future<String> future = AsyncResults.toFuture(AsyncResults.completed("value"));
+		assertThat(future.get(), is("value"));
+		assertThat(future.get(), is("value"));
+		assertThat(future.isCancelled(), is(false));
+	}
+
+	@Test
+	public void shouldBeDoneOnceAdaptedResultHasCompleted() throws Exception {
+		Future<String> future = AsyncResults.toFuture(AsyncResults.completed("value"));
+		assertThat(future.isDone(), is(false));
+		assertThat(future.get(), is("value"));
+		assertThat(future.isDone(), is(true));
+	}
+
+	@Test
+	public void shouldCompleteAdaptedResultWhenWaitingWithATimeout() throws Exception {
+		Future<String> future = AsyncResults.toFuture(AsyncResults.completed("value"));
+		assertThat(future.get(1, TimeUnit.SECONDS), is("value"));
+		assertThat(future.isDone(), is(true));
+	}
+
+	@Test
+	public void shouldThrowExecutionExceptionWhenAdaptedResultFails() throws Exception {
+		Future<String> future = AsyncResults.toFuture(failed("failed"));
+		try {
+			future.get();
+			fail("Expected exception");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), is("failed"));
+		}
+	}
+
+	private AsyncResult<String> failed(final String message) {
+		return new AsyncResult<String>() {
+			@Override
+			public String complete() {
+				throw new RepositoryException(message);
+			}
+		};
+	}
+}
@@ -18,18 +18,41 @@
 package com.threewks.thundr.gae.objectify.repository;
 
 import static com.atomicleopard.expressive.Expressive.list;
+import static com.googlecode.objectify.ObjectifyService.ofy;
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
-
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 
 import com.atomicleopard.expressive.Expressive;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
 import com.threewks.thundr.exception.BaseException;
 import com.threewks.thundr.gae.SetupAppengine;
 import com.threewks.thundr.gae.objectify.SetupObjectify;
@@ -48,6 +71,7 @@ public class BaseRepositoryTest {
 	public void before() {
 		searchService = new GoogleSearchService();
 		repository = new BaseRepository<>(TestEntity.class, list("id", "name"), searchService);
+		repository.setRepositoryFactory(new TestRepositoryFactory(repository));
 	}
 
 	@Test
@@ -150,6 +174,96 @@ public class BaseRepositoryTest {
 		assertThat(list.size(), is(0));
 	}
 
+	@Test
+	public void shouldLoadByFieldCollectionWithMoreValuesThanAnInFilterAllows() {
+		List<TestEntity> entities = new ArrayList<TestEntity>();
+		List<Object> names = new ArrayList<Object>();
+		for (int i = 0; i < BaseRepository.MaxInFilterValues * 2 + 5; i++) {
+			entities.add(new TestEntity("name" + i));
+			names.add("name" + i);
+		}
+		repository.save(entities).complete();
+		names.add("none");
+		names.add("name0");
+
+		List<TestEntity> list = repository.loadByField("name", names);
+		assertThat(list.size(), is(entities.size()));
+		assertThat(list.containsAll(entities), is(true));
+
+		List<Long> ids = repository.loadIdsByField("name", names);
+		assertThat(ids.size(), is(entities.size()));
+		assertThat(ids.containsAll(toIds(entities)), is(true));
+	}
+
+	@Test
+	public void shouldLoadByFieldCollectionReturningEmptyListWhenNoValues() {
+		assertThat(repository.loadByField("name", Collections.<Object> emptyList()).isEmpty(), is(true));
+		assertThat(repository.loadIdsByField("name", Collections.<Object> emptyList()).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldListIdsGivenCount() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		TestEntity testEntity3 = new TestEntity("name3");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		List<Long> ids = repository.listIds(2);
+		assertThat(ids.size(), is(2));
+		assertThat(toIds(Arrays.asList(testEntity, testEntity2, testEntity3)).containsAll(ids), is(true));
+	}
+
+	@Test
+	public void shouldLoadIdsByField() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		TestEntity testEntity3 = new TestEntity("name3");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		assertThat(repository.loadIdsByField("name", "name2"), contains(testEntity2.getId()));
+		assertThat(repository.loadIdsByField("name", "none").isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldLoadIdsByFieldCollection() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		TestEntity testEntity3 = new TestEntity("name3");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		List<Long> ids = repository.loadIdsByField("name", Expressive.<Object> list("name2", "name3"));
+		assertThat(ids, containsInAnyOrder(testEntity2.getId(), testEntity3.getId()));
+		assertThat(repository.loadIdsByField("name", Expressive.<Object> list("none")).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldDetermineWhetherEntitiesExist() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		repository.save(testEntity, testEntity2).complete();
+		Long missing = testEntity2.getId() + 1000;
+
+		List<Boolean> exists = repository.exists(Arrays.asList(testEntity.getId(), missing, testEntity2.getId(), testEntity.getId()));
+		assertThat(exists, contains(true, false, true, true));
+		assertThat(repository.exists(Collections.<Long> emptyList()).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldDetermineWhetherEntitiesExistForMoreIdsThanAnInFilterAllows() {
+		List<TestEntity> entities = new ArrayList<TestEntity>();
+		for (int i = 0; i < BaseRepository.MaxInFilterValues + 5; i++) {
+			entities.add(new TestEntity("name" + i));
+		}
+		repository.save(entities).complete();
+		List<Long> ids = new ArrayList<Long>(toIds(entities));
+		ids.add(-1L);
+
+		List<Boolean> exists = repository.exists(ids);
+		assertThat(exists.size(), is(ids.size()));
+		assertThat(exists.subList(0, entities.size()).contains(false), is(false));
+		assertThat(exists.get(entities.size()), is(false));
+	}
+
 	@Test
 	public void shouldSearchAllowingOrderAndLimit() {
 		TestEntity testEntity = new TestEntity(1, "name");
@@ -330,4 +444,763 @@ public class BaseRepositoryTest {
 		assertThat(repository.search().field("name").is("different").search(), hasItems(testEntity, testEntity2, testEntity3));
 		assertThat(repository.loadByField("name", "different"), hasItems(testEntity, testEntity2, testEntity3));
 	}
+
+	@Test
+	public void shouldReindexAllEntitiesInBatches() {
+		TestEntity testEntity = new TestEntity(1, "name");
+		TestEntity testEntity2 = new TestEntity(2, "name");
+		TestEntity testEntity3 = new TestEntity(3, "name");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		int count = repository.reindex(2, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				assertThat(batch.size() <= 2, is(true));
+				for (TestEntity entity : batch) {
+					entity.setName("different");
+				}
+				return batch;
+			}
+		});
+
+		assertThat(count, is(3));
+		assertThat(repository.search().field("name").is("different").search(), hasItems(testEntity, testEntity2, testEntity3));
+		assertThat(repository.loadByField("name", "different"), hasItems(testEntity, testEntity2, testEntity3));
+	}
+
+	@Test
+	public void shouldReindexAllEntitiesWithBatchesInFlight() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 10; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+
+		int count = repository.reindex(3, 2, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				for (TestEntity entity : batch) {
+					entity.setName("different");
+				}
+				return batch;
+			}
+		});
+
+		assertThat(count, is(10));
+		assertThat(repository.loadByField("name", "different").size(), is(10));
+		assertThat(repository.search().field("name").is("different").search().size(), is(10));
+	}
+
+	@Test
+	public void shouldReindexEntitiesBasedOnSearchWithBatchesInFlight() {
+		TestEntity testEntity = new TestEntity(1, "name");
+		TestEntity testEntity2 = new TestEntity(2, "name");
+		TestEntity testEntity3 = new TestEntity(3, "name");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		int count = repository.reindex(repository.search().field("name").is("name"), 1, 3, null);
+
+		assertThat(count, is(3));
+	}
+
+	@Test
+	public void shouldReindexEveryEntityMatchingSearchAPageAtATime() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+
+		final List<Long> reindexed = new ArrayList<>();
+		Search<TestEntity> search = repository.search().limit(1).field("name").is("name");
+		int count = repository.reindex(search, 2, 2, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				assertThat(batch.size() <= 2, is(true));
+				reindexed.addAll(toIds(batch));
+				return batch;
+			}
+		});
+
+		assertThat(count, is(5));
+		assertThat(reindexed, containsInAnyOrder(1L, 2L, 3L, 4L, 5L));
+		assertThat(search.limit(), is(1));
+	}
+
+	@Test
+	public void shouldReindexEntitiesBasedOnSearchWithBatchesLargerThanTheSearchLimit() {
+		TestEntity testEntity = new TestEntity(1, "name");
+		TestEntity testEntity2 = new TestEntity(2, "name");
+		TestEntity testEntity3 = new TestEntity(3, "name");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		final List<Integer> batchSizes = new ArrayList<>();
+		int count = repository.reindex(repository.search().field("name").is("name"), GoogleSearchService.MaxResultsPerSearch + 1, 1, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				batchSizes.add(batch.size());
+				return batch;
+			}
+		});
+
+		assertThat(count, is(3));
+		assertThat(batchSizes, contains(3));
+	}
+
+	@Test
+	public void shouldCheckpointReindexJobAndResumeFromLastCompletedBatch() {
+		TestEntity testEntity = new TestEntity(1, "name");
+		TestEntity testEntity2 = new TestEntity(2, "name");
+		TestEntity testEntity3 = new TestEntity(3, "name");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		final List<Long> applied = new ArrayList<>();
+		try {
+			repository.reindex("job", 2, 1, new ReindexOperation<TestEntity>() {
+				@Override
+				public List<TestEntity> apply(List<TestEntity> batch) {
+					if (!applied.isEmpty()) {
+						throw new RuntimeException("Expected");
+					}
+					applied.addAll(toIds(batch));
+					return batch;
+				}
+			});
+			fail("Expected the second batch to fail");
+		} catch (RuntimeException e) {
+			assertThat(e.getMessage(), is("Expected"));
+		}
+
+		ReindexCheckpoint checkpoint = ofy().load().type(ReindexCheckpoint.class).id("job").now();
+		assertThat(checkpoint.getProcessed(), is(2L));
+		assertThat(checkpoint.isComplete(), is(false));
+		assertThat(checkpoint.getEntityType(), is(TestEntity.class.getName()));
+
+		checkpoint = repository.reindex("job", 2, 1, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				applied.addAll(toIds(batch));
+				return batch;
+			}
+		});
+		assertThat(checkpoint.getProcessed(), is(3L));
+		assertThat(checkpoint.isComplete(), is(true));
+		assertThat(checkpoint.getCursor(), is(nullValue()));
+		assertThat(applied, contains(1L, 2L, 3L));
+
+		assertThat(repository.reindex("job", 2, 1, null).getProcessed(), is(3L));
+	}
+
+	@Test
+	public void shouldEnqueueATaskForEachReindexShard() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 10; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+
+		List<String> shards = repository.reindexInShards("job", 3, 2, null);
+
+		assertThat(shards, contains("job-0", "job-1", "job-2"));
+		QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName());
+		assertThat(queue.getTaskInfo().size(), is(3));
+	}
+
+	@Test
+	public void shouldReindexEveryEntityAcrossShards() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 10; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+
+		List<ReindexTask<TestEntity>> tasks = repository.createReindexTasks("job", 3, 2, null);
+		assertThat(tasks.size(), is(3));
+
+		long total = 0;
+		for (ReindexTask<TestEntity> task : tasks) {
+			task.run();
+			ReindexCheckpoint checkpoint = ofy().load().type(ReindexCheckpoint.class).id(task.getJobId()).now();
+			assertThat(checkpoint.isComplete(), is(true));
+			total += checkpoint.getProcessed();
+		}
+		assertThat(total, is(10L));
+	}
+
+	@Test
+	public void shouldRunDeferredTasksWithTheRepositoryCreatedByTheRepositoryFactory() {
+		ReindexTask<TestEntity> reindexTask = repository.newReindexTask("job-0", null, null, 2, null);
+		IndexOutboxTask<TestEntity> outboxTask = repository.newIndexOutboxTask(Collections.<Key<SearchIndexIntent>> emptyList());
+
+		assertThat(reindexTask.repository(), is(sameInstance(repository)));
+		assertThat(outboxTask.repository(), is(sameInstance(repository)));
+	}
+
+	@Test
+	public void shouldFailToCreateDeferredTasksWhenNoRepositoryFactoryIsSet() {
+		repository.save(new TestEntity(1, "name")).complete();
+		repository.setRepositoryFactory(null);
+
+		thrown.expect(BaseException.class);
+		thrown.expectMessage("Unable to create a deferred task for type TestEntity - no RepositoryFactory has been set on the repository");
+
+		repository.reindexInShards("job", 3, 2, null);
+	}
+
+	@Test
+	public void shouldNotCreateReindexShardsWhenNoEntitiesExist() {
+		assertThat(repository.createReindexTasks("job", 3, 2, null).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldFailToReindexInShardsWhenReindexOperationIsNotSerializable() {
+		thrown.expect(BaseException.class);
+		thrown.expectMessage("Unable to reindex type TestEntity in shards");
+
+		repository.reindexInShards("job", 3, 2, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				return batch;
+			}
+		});
+	}
+
+	@Test
+	public void shouldAssignIdsToNewEntitiesBeforeSaveCompletes() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		TestEntity testEntity3 = new TestEntity(100, "name3");
+
+		AsyncResult<TestEntity> result = repository.save(testEntity);
+		assertThat(testEntity.getId(), is(notNullValue()));
+		AsyncResult<List<TestEntity>> results = repository.save(testEntity2, testEntity3);
+		assertThat(testEntity2.getId(), is(notNullValue()));
+		assertThat(testEntity2.getId(), is(not(testEntity.getId())));
+		assertThat(testEntity3.getId(), is(100L));
+
+		result.complete();
+		results.complete();
+		assertThat(repository.load(testEntity.getId(), testEntity2.getId(), testEntity3.getId()), hasItems(testEntity, testEntity2, testEntity3));
+		assertThat(repository.search().field("name").in("name", "name2").search(), hasItems(testEntity, testEntity2));
+	}
+
+	@Test
+	public void shouldSaveAndIndexEntitiesInBatches() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 600; i++) {
+			entities.add(new TestEntity("name"));
+		}
+		repository.save(entities).complete();
+
+		assertThat(repository.load(toIds(entities)).contains(null), is(false));
+		assertThat(repository.search().field("name").is("name").limit(1000).search().size(), is(600));
+	}
+
+	@Test
+	public void shouldDeleteAndRemoveEntitiesFromIndexInBatches() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 600; i++) {
+			entities.add(new TestEntity("name"));
+		}
+		repository.save(entities).complete();
+
+		repository.delete(toIds(entities)).complete();
+
+		assertThat(repository.list(1000).isEmpty(), is(true));
+		assertThat(repository.search().field("name").is("name").search().isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldLoadAsynchronously() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		repository.save(testEntity, testEntity2).complete();
+
+		AsyncResult<TestEntity> single = repository.loadAsync(testEntity.getId());
+		AsyncResult<List<TestEntity>> multiple = repository.loadAsync(list(testEntity2.getId(), 987654321L, testEntity.getId()));
+		AsyncResult<List<TestEntity>> byField = repository.loadByFieldAsync("name", "name2");
+		AsyncResult<List<TestEntity>> byFields = repository.loadByFieldAsync("name", Expressive.<Object> list("name", "name2"));
+
+		assertThat(single.complete(), is(testEntity));
+		assertThat(multiple.complete(), is(Arrays.asList(testEntity2, null, testEntity)));
+		assertThat(byField.complete(), is(Arrays.asList(testEntity2)));
+		assertThat(byFields.complete(), hasItems(testEntity, testEntity2));
+	}
+
+	@Test
+	public void shouldAllowSeveralSearchesInProgressAtOnce() {
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		repository.save(testEntity, testEntity2).complete();
+
+		AsyncResult<List<TestEntity>> search1 = repository.search().field("name").eq("name").searchAsync();
+		AsyncResult<List<TestEntity>> search2 = repository.search().field("name").eq("name2").searchAsync();
+		AsyncResult<List<Long>> search3 = repository.search().field("name").in("name", "name2").searchIdsAsync();
+
+		assertThat(search2.complete(), is(Arrays.asList(testEntity2)));
+		assertThat(search1.complete(), is(Arrays.asList(testEntity)));
+		assertThat(search3.complete(), hasItems(testEntity.getId(), testEntity2.getId()));
+	}
+
+	@Test
+	public void shouldPageThroughSearchResultsUsingCursors() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+
+		List<TestEntity> results = new ArrayList<>();
+		SearchPage<TestEntity> page = repository.search().field("name").is("name").order("id").ascending().limit(2).searchPage();
+		results.addAll(page.results());
+		while (page.hasMore()) {
+			assertThat(page.results().size() <= 2, is(true));
+			page = repository.search().field("name").is("name").order("id").ascending().limit(2).cursor(page.cursor()).searchPage();
+			results.addAll(page.results());
+		}
+
+		assertThat(results, is(entities));
+	}
+
+	@Test
+	public void shouldNotModifySearchWhenSearchingForAPage() {
+		repository.save(new TestEntity(1, "name"), new TestEntity(2, "name")).complete();
+
+		Search<TestEntity> search = repository.search().field("name").is("name").limit(1);
+		SearchPage<TestEntity> page = search.searchPage();
+
+		assertThat(page.results().size(), is(1));
+		assertThat(search.searchRequest.isCursorPaging(), is(false));
+		assertThat(search.cursor(), is(nullValue()));
+		assertThat(search.search().size(), is(1));
+	}
+
+	@Test
+	public void shouldStreamEveryEntityMatchingSearch() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+
+		List<TestEntity> results = new ArrayList<>();
+		Iterator<TestEntity> stream = repository.search().field("name").is("name").order("id").ascending().limit(2).stream();
+		while (stream.hasNext()) {
+			results.add(stream.next());
+		}
+
+		assertThat(results, is(entities));
+	}
+
+	@Test
+	public void shouldOnlyRetainTheCurrentPageInTheSessionWhenStreaming() {
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 3; i++) {
+			entities.add(new TestEntity(i, "name"));
+		}
+		repository.save(entities).complete();
+		ofy().clear();
+
+		Iterator<TestEntity> stream = repository.search().field("name").is("name").order("id").ascending().limit(2).stream();
+		TestEntity first = stream.next();
+		assertThat(ofy().load().type(TestEntity.class).id(1L).now(), is(sameInstance(first)));
+		stream.next();
+		TestEntity third = stream.next();
+
+		assertThat(ofy().load().type(TestEntity.class).id(3L).now(), is(sameInstance(third)));
+		assertThat(ofy().load().type(TestEntity.class).id(1L).now(), is(not(sameInstance(first))));
+	}
+
+	@Test
+	public void shouldCountEntitiesMatchingSearch() {
+		TestEntity testEntity = new TestEntity(1, "name");
+		TestEntity testEntity2 = new TestEntity(2, "name");
+		TestEntity testEntity3 = new TestEntity(3, "other");
+		repository.save(testEntity, testEntity2, testEntity3).complete();
+
+		assertThat(repository.search().field("name").is("name").count(), is(2L));
+		assertThat(repository.search().field("name").is("other").count(100), is(1L));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldSkipIndexingWhenIndexedFieldsAreUnchanged() {
+		GoogleSearchService spySearchService = Mockito.spy(new GoogleSearchService());
+		repository = new BaseRepository<>(TestEntity.class, list("id", "name"), spySearchService);
+		repository.setIndexFingerprints(new IndexFingerprints<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService()));
+
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+		repository.save(testEntity).complete();
+		verify(spySearchService, times(1)).index(eq(testEntity), anyString(), any(Iterable.class));
+
+		testEntity.setName("changed");
+		repository.save(testEntity).complete();
+		verify(spySearchService, times(2)).index(eq(testEntity), anyString(), any(Iterable.class));
+		assertThat(repository.search().field("name").eq("changed").search(), hasItem(testEntity));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldOnlyIndexChangedEntitiesWhenSavingMany() {
+		GoogleSearchService spySearchService = Mockito.spy(new GoogleSearchService());
+		repository = new BaseRepository<>(TestEntity.class, list("id", "name"), spySearchService);
+		repository.setIndexFingerprints(new IndexFingerprints<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService()));
+
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		repository.save(testEntity, testEntity2).complete();
+		testEntity2.setName("changed");
+		repository.save(testEntity, testEntity2).complete();
+
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify(spySearchService, times(2)).index(captor.capture(), any(Iterable.class));
+		assertThat(captor.getAllValues().get(0).size(), is(2));
+		assertThat(captor.getAllValues().get(1).keySet(), is((Object) Collections.singleton(String.valueOf(testEntity2.getId()))));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldFingerprintTheFieldsTheRepositoryIndexes() {
+		GoogleSearchService spySearchService = Mockito.spy(new GoogleSearchService());
+		repository = new BaseRepository<TestEntity>(TestEntity.class, list("id"), spySearchService) {
+			@Override
+			public List<String> getFieldsToIndex() {
+				return Expressive.<String> list("id", "name");
+			}
+		};
+		repository.setIndexFingerprints(new IndexFingerprints<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService()));
+
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+		testEntity.setName("changed");
+		repository.save(testEntity).complete();
+
+		verify(spySearchService, times(2)).index(eq(testEntity), anyString(), any(Iterable.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldIndexAgainAfterDeleteWhenFingerprintsAreInUse() {
+		GoogleSearchService spySearchService = Mockito.spy(new GoogleSearchService());
+		repository = new BaseRepository<>(TestEntity.class, list("id", "name"), spySearchService);
+		repository.setIndexFingerprints(new IndexFingerprints<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService()));
+
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+		repository.delete(testEntity).complete();
+		repository.save(testEntity).complete();
+
+		verify(spySearchService, times(2)).index(eq(testEntity), anyString(), any(Iterable.class));
+		assertThat(repository.search().field("name").eq("name").search(), hasItem(testEntity));
+	}
+
+	@Test
+	public void shouldIndexRevertedValueAfterReindexWhenFingerprintsAreInUse() {
+		repository.setIndexFingerprints(new IndexFingerprints<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService()));
+
+		TestEntity testEntity = new TestEntity(1, "name");
+		repository.save(testEntity).complete();
+		repository.reindex(10, new ReindexOperation<TestEntity>() {
+			@Override
+			public List<TestEntity> apply(List<TestEntity> batch) {
+				for (TestEntity entity : batch) {
+					entity.setName("changed");
+				}
+				return batch;
+			}
+		});
+		assertThat(repository.search().field("name").eq("changed").search(), hasItem(testEntity));
+
+		testEntity.setName("name");
+		repository.save(testEntity).complete();
+
+		assertThat(repository.search().field("name").eq("name").search(), hasItem(testEntity));
+		assertThat(repository.search().field("name").eq("changed").search().isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldSaveIndexIntentsInsteadOfIndexingInOutboxMode() {
+		final List<Key<SearchIndexIntent>> enqueued = new ArrayList<>();
+		repository = outboxRepository(enqueued);
+
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name");
+		repository.save(testEntity, testEntity2).complete();
+
+		assertThat(enqueued.size(), is(2));
+		assertThat(ofy().load().keys(enqueued).size(), is(2));
+		assertThat(repository.search().field("name").eq("name").search().isEmpty(), is(true));
+
+		assertThat(repository.drainIndexOutbox(enqueued), is(2));
+		assertThat(repository.search().field("name").eq("name").search(), hasItems(testEntity, testEntity2));
+		ofy().clear();
+		assertThat(ofy().load().keys(enqueued).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldWriteIntentsInTransactionsInOutboxMode() {
+		final List<Key<SearchIndexIntent>> enqueued = new ArrayList<>();
+		repository = outboxRepository(enqueued);
+
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 0; i < BaseRepository.MaxTransactionEntityGroups * 2 + 1; i++) {
+			entities.add(new TestEntity("name" + i));
+		}
+		// the intents are enqueued with the writes, even if the save is never completed
+		repository.save(entities);
+
+		assertThat(enqueued.size(), is(entities.size()));
+		assertThat(repository.load(toIds(entities)), containsInAnyOrder(entities.toArray()));
+
+		repository.delete(toIds(entities)).complete();
+		assertThat(enqueued.size(), is(entities.size() * 2));
+		assertThat(repository.load(toIds(entities)), everyItem(nullValue(TestEntity.class)));
+		assertThat(repository.drainIndexOutbox(enqueued), is(entities.size() * 2));
+	}
+
+	@Test
+	public void shouldRemoveDeletedEntitiesFromIndexInOutboxMode() {
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+
+		final List<Key<SearchIndexIntent>> enqueued = new ArrayList<>();
+		repository = outboxRepository(enqueued);
+		repository.delete(testEntity).complete();
+
+		assertThat(repository.load(testEntity.getId()), is(nullValue()));
+		assertThat(repository.search().field("name").eq("name").searchIds(), hasItem(testEntity.getId()));
+
+		assertThat(repository.drainIndexOutbox(enqueued), is(1));
+		assertThat(repository.search().field("name").eq("name").searchIds().isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldIgnoreIntentsWhichHaveAlreadyBeenApplied() {
+		final List<Key<SearchIndexIntent>> enqueued = new ArrayList<>();
+		repository = outboxRepository(enqueued);
+		repository.save(new TestEntity("name")).complete();
+
+		assertThat(repository.drainIndexOutbox(enqueued), is(1));
+		assertThat(repository.drainIndexOutbox(enqueued), is(0));
+	}
+
+	@Test
+	public void shouldEnqueueTaskAndDrainPendingIntentsInOutboxMode() {
+		repository.setIndexOutbox(true);
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		repository.save(testEntity, testEntity2).complete();
+
+		QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName());
+		assertThat(queue.getTaskInfo().size(), is(1));
+
+		// loading the entities from the datastore applies any pending writes to their entity groups, which include the intents
+		ofy().clear();
+		repository.load(testEntity.getId(), testEntity2.getId());
+		assertThat(repository.drainIndexOutbox(1), is(2));
+		assertThat(repository.search().field("name").in("name", "name2").search(), hasItems(testEntity, testEntity2));
+	}
+
+	@Test
+	public void shouldJoinActiveTransactionInOutboxMode() {
+		repository.setIndexOutbox(true);
+		final TestEntity testEntity = new TestEntity("name");
+		try {
+			ofy().transact(new Work<Void>() {
+				@Override
+				public Void run() {
+					repository.save(testEntity).complete();
+					throw new IllegalStateException("rolled back");
+				}
+			});
+			fail("Expected exception");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("rolled back"));
+		}
+
+		ofy().clear();
+		assertThat(repository.load(testEntity.getId()), is(nullValue()));
+		assertThat(ofy().load().type(SearchIndexIntent.class).list().isEmpty(), is(true));
+		QueueStateInfo queue = LocalTaskQueueTestConfig.getLocalTaskQueue().getQueueStateInfo().get(QueueFactory.getDefaultQueue().getQueueName());
+		assertThat(queue.getTaskInfo().isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldKeepTheSessionWhenWritingInOutboxMode() {
+		TestEntity loaded = new TestEntity(1, "name");
+		repository.save(loaded).complete();
+		loaded = repository.load(1L);
+
+		repository.setIndexOutbox(true);
+		repository.save(new TestEntity(2, "name")).complete();
+
+		assertThat(repository.load(1L), is(sameInstance(loaded)));
+	}
+
+	private BaseRepository<TestEntity> outboxRepository(final List<Key<SearchIndexIntent>> enqueued) {
+		BaseRepository<TestEntity> outboxRepository = new BaseRepository<TestEntity>(TestEntity.class, list("id", "name"), searchService) {
+			@Override
+			protected void enqueueIntents(List<Key<SearchIndexIntent>> intentKeys) {
+				enqueued.addAll(intentKeys);
+			}
+		};
+		outboxRepository.setRepositoryFactory(new TestRepositoryFactory(outboxRepository));
+		outboxRepository.setIndexOutbox(true);
+		return outboxRepository;
+	}
+
+	@Test
+	public void shouldLoadThroughNearCacheAndInvalidateOnSave() {
+		NearCache<TestEntity> nearCache = new NearCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+		repository.setNearCache(nearCache);
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name2");
+		repository.save(testEntity, testEntity2).complete();
+
+		assertThat(repository.load(testEntity.getId(), testEntity2.getId()), contains(testEntity, testEntity2));
+		assertThat(nearCache.get(list(testEntity.getId(), testEntity2.getId())).size(), is(2));
+
+		testEntity.setName("changed");
+		repository.save(testEntity).complete();
+		assertThat(nearCache.get(list(testEntity.getId())).isEmpty(), is(true));
+		assertThat(repository.load(testEntity.getId()).getName(), is("changed"));
+	}
+
+	@Test
+	public void shouldInvalidateNearCacheAgainWhenSaveCompletes() {
+		NearCache<TestEntity> nearCache = new NearCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+		repository.setNearCache(nearCache);
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+
+		testEntity.setName("changed");
+		AsyncResult<TestEntity> save = repository.save(testEntity);
+		// a concurrent load which read the generation after the save started, but loaded the entity before it was committed
+		nearCache.put(list(new TestEntity(testEntity.getId(), "name")), nearCache.generation());
+		assertThat(nearCache.size(), is(1L));
+
+		save.complete();
+		assertThat(nearCache.size(), is(0L));
+		assertThat(repository.load(testEntity.getId()).getName(), is("changed"));
+	}
+
+	@Test
+	public void shouldBypassNearCacheWithinTransaction() {
+		NearCache<TestEntity> nearCache = new NearCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+		repository.setNearCache(nearCache);
+		final TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+		nearCache.put(list(new TestEntity(testEntity.getId(), "cached")), nearCache.generation());
+		ofy().clear();
+
+		assertThat(repository.load(testEntity.getId()).getName(), is("cached"));
+		String name = ofy().transact(new Work<String>() {
+			@Override
+			public String run() {
+				return repository.load(testEntity.getId()).getName();
+			}
+		});
+		assertThat(name, is("name"));
+	}
+
+	@Test
+	public void shouldInvalidateNearCacheOnDelete() {
+		NearCache<TestEntity> nearCache = new NearCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+		repository.setNearCache(nearCache);
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+		repository.load(testEntity.getId());
+
+		repository.delete(testEntity).complete();
+		assertThat(repository.load(testEntity.getId()), is(nullValue()));
+	}
+
+	@Test
+	public void shouldRememberMissingIdsUntilSaved() {
+		MissingIdCache<TestEntity> missingIdCache = new MissingIdCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+		repository.setMissingIdCache(missingIdCache);
+		TestEntity testEntity = new TestEntity("name");
+		repository.save(testEntity).complete();
+
+		assertThat(repository.load(testEntity.getId(), 987654321L), contains(testEntity, null));
+		assertThat(missingIdCache.missing(list(testEntity.getId(), 987654321L)), contains(987654321L));
+		assertThat(repository.load(987654321L), is(nullValue()));
+
+		TestEntity created = new TestEntity(987654321L, "created");
+		repository.save(created).complete();
+		assertThat(missingIdCache.missing(list(987654321L)).isEmpty(), is(true));
+		assertThat(repository.load(987654321L), is(created));
+	}
+
+	@Test
+	public void shouldBypassMissingIdCacheWithinTransaction() {
+		MissingIdCache<TestEntity> missingIdCache = new MissingIdCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+		repository.setMissingIdCache(missingIdCache);
+		missingIdCache.record(list(987654321L));
+		// created outside of the repository, so the id is still remembered as missing
+		ofy().save().entity(new TestEntity(987654321L, "created")).now();
+		ofy().clear();
+
+		assertThat(repository.load(987654321L), is(nullValue()));
+		TestEntity loaded = ofy().transact(new Work<TestEntity>() {
+			@Override
+			public TestEntity run() {
+				return repository.load(987654321L);
+			}
+		});
+		assertThat(loaded.getName(), is("created"));
+	}
+
+	@Test
+	public void shouldHydrateSearchResultsFromMemcacheFirst() {
+		EntityMemcache<TestEntity> searchResultCache = new EntityMemcache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService()) {
+			@Override
+			public Future<Set<String>> putAsync(Collection<TestEntity> entities) {
+				// cache synchronously so the test can observe the cached entities
+				put(entities);
+				return null;
+			}
+		};
+		repository.setSearchResultCache(searchResultCache);
+		TestEntity testEntity = new TestEntity("name");
+		TestEntity testEntity2 = new TestEntity("name");
+		repository.save(testEntity, testEntity2).complete();
+
+		assertThat(repository.search().field("name").eq("name").search(), hasItems(testEntity, testEntity2));
+		assertThat(searchResultCache.get(list(testEntity.getId(), testEntity2.getId())).size(), is(2));
+
+		// changes made outside of the repository are not seen while the entity is cached
+		ofy().save().entity(new TestEntity(testEntity.getId(), "changed")).now();
+		ofy().clear();
+		List<TestEntity> results = repository.search().field("name").eq("name").search();
+		assertThat(results.get(results.indexOf(testEntity)).getName(), is("name"));
+
+		// changes made through the repository remove the entity from the cache
+		testEntity2.setName("changed");
+		repository.save(testEntity2).complete();
+		assertThat(searchResultCache.get(list(testEntity2.getId())).isEmpty(), is(true));
+	}
+
+	private static class TestRepositoryFactory implements RepositoryFactory<TestEntity> {
+		private static final long serialVersionUID = 1L;
+		private transient BaseRepository<TestEntity> repository;
+
+		public TestRepositoryFactory(BaseRepository<TestEntity> repository) {
+			this.repository = repository;
+		}
+
+		@Override
+		public BaseRepository<TestEntity> create() {
+			return repository;
+		}
+	}
+
+	private List<Long> toIds(List<TestEntity> entities) {
+		List<Long> ids = new ArrayList<>();
+		for (TestEntity entity : entities) {
+			ids.add(entity.getId());
+		}
+		return ids;
+	}
 }
@@ -0,0 +1,73 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchLoaderTest {
+	private Repository<TestEntity> repository;
+	private BatchLoader<TestEntity> loader;
+	private TestEntity entity1 = new TestEntity(1, "one");
+	private TestEntity entity2 = new TestEntity(2, "two");
+	private TestEntity entity3 = new TestEntity(3, "three");
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void before() {
+		repository = mock(Repository.class);
+		loader = new BatchLoader<>(repository);
+	}
+
+	@Test
+	public void shouldCoalesceLoadsIntoASingleBatch() {
+		when(repository.load(list(1L, 2L, 3L))).thenReturn(Arrays.asList(entity1, entity2, null));
+
+		AsyncResult<TestEntity> result1 = loader.load(1L);
+		AsyncResult<TestEntity> result2 = loader.load(2L);
+		AsyncResult<TestEntity> result3 = loader.load(3L);
+		verifyZeroInteractions(repository);
+
+		assertThat(result2.complete(), is(entity2));
+		assertThat(result1.complete(), is(entity1));
+		assertThat(result3.complete(), is(nullValue()));
+		verify(repository, times(1)).load(list(1L, 2L, 3L));
+	}
+
+	@Test
+	public void shouldLoadIdsRequestedAfterAFlushInTheNextBatch() {
+		when(repository.load(list(1L))).thenReturn(Arrays.asList(entity1));
+		when(repository.load(list(2L, 3L))).thenReturn(Arrays.asList(entity2, entity3));
+
+		assertThat(loader.load(1L).complete(), is(entity1));
+		AsyncResult<List<TestEntity>> results = loader.load(list(1L, 2L, 3L));
+		assertThat(results.complete(), is(Arrays.asList(entity1, entity2, entity3)));
+
+		verify(repository).load(list(1L));
+		verify(repository).load(list(2L, 3L));
+		verifyNoMoreInteractions(repository);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.threewks.thundr.gae.SetupAppengine;
+import com.threewks.thundr.gae.objectify.SetupObjectify;
+
+public class EntityMemcacheTest {
+	@Rule public SetupAppengine setupAppengine = new SetupAppengine();
+	@Rule public SetupObjectify setupObjectify = new SetupObjectify(TestEntity.class);
+
+	private EntityMemcache<TestEntity> entityMemcache;
+
+	@Before
+	public void before() {
+		entityMemcache = new EntityMemcache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+	}
+
+	@Test
+	public void shouldReturnCopiesOfCachedEntities() {
+		TestEntity entity = new TestEntity(1L, "one");
+		entityMemcache.put(list(entity));
+
+		Map<Long, TestEntity> cached = entityMemcache.get(list(1L, 2L));
+		assertThat(cached.keySet(), contains(1L));
+		assertThat(cached.get(1L), is(not(sameInstance(entity))));
+		assertThat(cached.get(1L).getName(), is("one"));
+	}
+
+	@Test
+	public void shouldCacheAsynchronously() throws Exception {
+		entityMemcache.putAsync(list(new TestEntity(1L, "one"))).get();
+		assertThat(entityMemcache.get(list(1L)).get(1L).getName(), is("one"));
+	}
+
+	@Test
+	public void shouldNotReplaceCachedEntities() {
+		entityMemcache.put(list(new TestEntity(1L, "one")));
+		entityMemcache.put(list(new TestEntity(1L, "other")));
+		assertThat(entityMemcache.get(list(1L)).get(1L).getName(), is("one"));
+	}
+
+	@Test
+	public void shouldNotCacheEntitiesWhichWereJustRemoved() {
+		entityMemcache.put(list(new TestEntity(1L, "one")));
+		entityMemcache.remove(list(1L));
+		entityMemcache.put(list(new TestEntity(1L, "stale")));
+
+		assertThat(entityMemcache.get(list(1L)).isEmpty(), is(true));
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.threewks.thundr.gae.SetupAppengine;
+import com.threewks.thundr.gae.objectify.SetupObjectify;
+
+public class IdAllocatorTest {
+	@Rule public SetupAppengine setupAppengine = new SetupAppengine();
+	@Rule public SetupObjectify setupObjectify = new SetupObjectify(TestEntity.class);
+
+	@Test
+	public void shouldAllocateUniqueIdsAcrossBlocks() {
+		IdAllocator<TestEntity> idAllocator = new IdAllocator<>(TestEntity.class, 3);
+		Set<Long> ids = new HashSet<>();
+		for (int i = 0; i < 10; i++) {
+			ids.add(idAllocator.next());
+		}
+		assertThat(ids.size(), is(10));
+		assertThat(ids.contains(null), is(false));
+	}
+
+	@Test
+	public void shouldAllocateManyIdsAtOnce() {
+		IdAllocator<TestEntity> idAllocator = new IdAllocator<>(TestEntity.class, 3);
+		List<Long> ids = idAllocator.next(2);
+		List<Long> moreIds = idAllocator.next(10);
+		assertThat(ids.size(), is(2));
+		assertThat(moreIds.size(), is(10));
+
+		Set<Long> allIds = new HashSet<>(ids);
+		allIds.addAll(moreIds);
+		assertThat(allIds.size(), is(12));
+	}
+}
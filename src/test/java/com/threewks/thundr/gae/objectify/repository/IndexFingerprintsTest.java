@@ -0,0 +1,78 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.threewks.thundr.gae.SetupAppengine;
+
+public class IndexFingerprintsTest {
+	@Rule public SetupAppengine setupAppengine = new SetupAppengine();
+
+	private IndexFingerprints<TestEntity> indexFingerprints;
+	private List<String> fields = list("name");
+
+	@Before
+	public void before() {
+		indexFingerprints = new IndexFingerprints<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+	}
+
+	@Test
+	public void shouldTreatEntitiesWithoutFingerprintsAsChanged() {
+		Map<Long, String> changed = indexFingerprints.changed(list(new TestEntity(1L, "one"), new TestEntity(2L, "two")), fields);
+		assertThat(changed.keySet(), contains(1L, 2L));
+	}
+
+	@Test
+	public void shouldNotTreatEntitiesAsChangedOnceRecorded() {
+		TestEntity entity = new TestEntity(1L, "one");
+		indexFingerprints.record(indexFingerprints.changed(list(entity), fields));
+
+		assertThat(indexFingerprints.changed(list(entity), fields).isEmpty(), is(true));
+
+		entity.setName("changed");
+		assertThat(indexFingerprints.changed(list(entity), fields).keySet(), contains(1L));
+	}
+
+	@Test
+	public void shouldTreatEntitiesAsChangedOnceCleared() {
+		TestEntity entity = new TestEntity(1L, "one");
+		indexFingerprints.record(indexFingerprints.changed(list(entity), fields));
+		indexFingerprints.clear(list(1L));
+
+		assertThat(indexFingerprints.changed(list(entity), fields).keySet(), contains(1L));
+	}
+
+	@Test
+	public void shouldTreatEntitiesAsChangedWhenIndexedFieldsChange() {
+		TestEntity entity = new TestEntity(1L, "one");
+		indexFingerprints.record(indexFingerprints.changed(list(entity), fields));
+
+		assertThat(indexFingerprints.changed(list(entity), list("id", "name")).keySet(), contains(1L));
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.threewks.thundr.gae.SetupAppengine;
+
+public class MissingIdCacheTest {
+	@Rule public SetupAppengine setupAppengine = new SetupAppengine();
+
+	private MissingIdCache<TestEntity> missingIdCache;
+
+	@Before
+	public void before() {
+		missingIdCache = new MissingIdCache<TestEntity>(TestEntity.class, MemcacheServiceFactory.getMemcacheService());
+	}
+
+	@Test
+	public void shouldReturnOnlyRecordedIdsAsMissing() {
+		missingIdCache.record(list(1L, 2L));
+		assertThat(missingIdCache.missing(list(1L, 2L, 3L)), contains(1L, 2L));
+	}
+
+	@Test
+	public void shouldNotReturnRemovedIdsAsMissing() {
+		missingIdCache.record(list(1L, 2L));
+		missingIdCache.remove(list(1L));
+		assertThat(missingIdCache.missing(list(1L, 2L)), contains(2L));
+	}
+
+	@Test
+	public void shouldNotRecordIdsWhichWereJustRemoved() {
+		missingIdCache.remove(list(1L));
+		missingIdCache.record(list(1L));
+		assertThat(missingIdCache.missing(list(1L)).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldHandleEmptyIds() {
+		missingIdCache.record(list(new Long[0]));
+		missingIdCache.remove(list(new Long[0]));
+		assertThat(missingIdCache.missing(list(new Long[0])).isEmpty(), is(true));
+	}
+}
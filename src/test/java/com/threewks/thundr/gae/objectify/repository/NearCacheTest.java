@@ -0,0 +1,111 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.gae.objectify.repository;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.threewks.thundr.gae.SetupAppengine;
+import com.threewks.thundr.gae.objectify.SetupObjectify;
+
+public class NearCacheTest {
+	@Rule public SetupAppengine setupAppengine = new SetupAppengine();
+	@Rule public SetupObjectify setupObjectify = new SetupObjectify(TestEntity.class);
+
+	private MemcacheService memcacheService;
+	private NearCache<TestEntity> nearCache;
+
+	@Before
+	public void before() {
+		memcacheService = MemcacheServiceFactory.getMemcacheService();
+		nearCache = new NearCache<TestEntity>(TestEntity.class, memcacheService);
+	}
+
+	@Test
+	public void shouldReturnNothingWhenNothingCached() {
+		assertThat(nearCache.get(list(1L, 2L)).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldReturnCopiesOfCachedEntities() {
+		TestEntity entity = new TestEntity(1L, "one");
+		nearCache.put(list(entity), nearCache.generation());
+
+		Map<Long, TestEntity> cached = nearCache.get(list(1L, 2L));
+		assertThat(cached.keySet(), contains(1L));
+		assertThat(cached.get(1L), is(not(sameInstance(entity))));
+		assertThat(cached.get(1L).getName(), is("one"));
+		assertThat(nearCache.size(), is(1L));
+	}
+
+	@Test
+	public void shouldReadFromMemcacheWhenNotHeldInMemory() {
+		nearCache.put(list(new TestEntity(1L, "one")), nearCache.generation());
+		nearCache.clear();
+		assertThat(nearCache.size(), is(0L));
+
+		assertThat(nearCache.get(list(1L)).get(1L).getName(), is("one"));
+		assertThat(nearCache.size(), is(1L));
+	}
+
+	@Test
+	public void shouldRemoveInvalidatedEntitiesFromBothTiers() {
+		nearCache.put(list(new TestEntity(1L, "one")), nearCache.generation());
+		nearCache.invalidate(list(1L));
+
+		assertThat(nearCache.get(list(1L)).isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldNotHoldEntitiesLoadedBeforeAnInvalidationInMemory() {
+		Long generation = nearCache.generation();
+		nearCache.invalidate(list(2L));
+		nearCache.put(list(new TestEntity(1L, "one")), generation);
+
+		assertThat(nearCache.size(), is(0L));
+	}
+
+	@Test
+	public void shouldClearInMemoryCacheWhenAnotherInstanceInvalidates() {
+		NearCache<TestEntity> otherInstance = new NearCache<TestEntity>(TestEntity.class, memcacheService);
+		nearCache.setGenerationCheckMillis(0);
+		nearCache.put(list(new TestEntity(1L, "one")), nearCache.generation());
+
+		otherInstance.invalidate(list(1L));
+
+		assertThat(nearCache.get(list(1L)).isEmpty(), is(true));
+		assertThat(nearCache.generation(), is(otherInstance.generation()));
+	}
+
+	@Test
+	public void shouldNotHoldEntitiesInMemoryBeyondLocalExpiry() {
+		NearCache<TestEntity> expiring = new NearCache<TestEntity>(TestEntity.class, memcacheService, NearCache.DefaultMaximumSize, 0);
+		expiring.put(list(new TestEntity(1L, "one")), expiring.generation());
+
+		assertThat(expiring.size(), is(0L));
+	}
+}
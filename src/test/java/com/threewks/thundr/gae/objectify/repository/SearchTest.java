@@ -22,6 +22,7 @@ import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.*;
 
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Before;
@@ -60,6 +61,14 @@ public class SearchTest {
 		assertThat(searchRequest.offset(), is(87));
 	}
 
+	@Test
+	public void shouldApplyAndRetainCursor() {
+		assertThat(search.cursor("cursor"), is(search));
+		assertThat(search.cursor(), is("cursor"));
+		assertThat(searchRequest.cursor(), is("cursor"));
+		assertThat(searchRequest.isCursorPaging(), is(true));
+	}
+
 	@Test
 	public void shouldApplyAndRetainQuery() {
 		assertThat(search.query("Text"), is(search));
@@ -99,6 +108,44 @@ public class SearchTest {
 		verify(repository).completeIdSearch(search);
 	}
 
+	@Test
+	public void shouldSearchPageByDelegatingToRepository() {
+		SearchPage<TestEntity> page = new SearchPage<>(list(new TestEntity("name")), "cursor", 10);
+		when(repository.completeSearchPage(search)).thenReturn(page);
+		assertThat(search.searchPage(), is(page));
+
+		verify(repository).completeSearchPage(search);
+	}
+
+	@Test
+	public void shouldStreamByDelegatingToRepository() {
+		Iterator<TestEntity> results = list(new TestEntity("name")).iterator();
+		when(repository.completeSearchStream(search)).thenReturn(results);
+		assertThat(search.stream(), is(results));
+
+		verify(repository).completeSearchStream(search);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldSearchAsyncByDelegatingToRepository() {
+		AsyncResult<List<TestEntity>> results = mock(AsyncResult.class);
+		when(repository.completeSearchAsync(search)).thenReturn(results);
+		assertThat(search.searchAsync(), is(results));
+
+		verify(repository).completeSearchAsync(search);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldSearchIdsAsyncByDelegatingToRepository() {
+		AsyncResult<List<Long>> results = mock(AsyncResult.class);
+		when(repository.completeIdSearchAsync(search)).thenReturn(results);
+		assertThat(search.searchIdsAsync(), is(results));
+
+		verify(repository).completeIdSearchAsync(search);
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void shouldRedindexByDelegatingToRepository() {
@@ -108,4 +155,14 @@ public class SearchTest {
 
 		verify(repository).reindex(search, 11, reindexOp);
 	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldRedindexWithBatchesInFlightByDelegatingToRepository() {
+		ReindexOperation<TestEntity> reindexOp = mock(ReindexOperation.class);
+		when(repository.reindex(search, 11, 3, reindexOp)).thenReturn(13);
+		assertThat(search.reindex(11, 3, reindexOp), is(13));
+
+		verify(repository).reindex(search, 11, 3, reindexOp);
+	}
 }
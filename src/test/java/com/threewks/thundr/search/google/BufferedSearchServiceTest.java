@@ -0,0 +1,265 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.search.google;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.appengine.api.search.Document;
+
+public class BufferedSearchServiceTest {
+	private GoogleSearchService delegate = mock(GoogleSearchService.class);
+	private BufferedSearchService bufferedSearchService = new BufferedSearchService(delegate);
+	private IndexOperation indexOperation = mock(IndexOperation.class);
+	private List<String> fields = list("name");
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void before() {
+		when(delegate.index(any(Class.class), anyListOf(Document.class))).thenReturn(indexOperation);
+		when(delegate.index(any(), anyString(), any(Iterable.class))).thenReturn(indexOperation);
+		when(delegate.remove(any(Class.class), any(Iterable.class))).thenReturn(indexOperation);
+		when(delegate.toDocument(any(), anyString(), anyListOf(String.class))).thenAnswer(new Answer<Document>() {
+			@Override
+			public Document answer(InvocationOnMock invocation) throws Throwable {
+				Object[] args = invocation.getArguments();
+				return new DocumentMapper(args[0].getClass(), (List<String>) args[2]).toDocument((String) args[1], args[0]);
+			}
+		});
+	}
+
+	@Test
+	public void shouldPassOperationsThroughOutsideOfScope() {
+		assertThat(bufferedSearchService.isBuffering(), is(false));
+		IndexOperation operation = bufferedSearchService.index("object", "1", fields);
+
+		assertThat(operation, is(indexOperation));
+		verify(delegate).index("object", "1", fields);
+	}
+
+	@Test
+	public void shouldBufferIndexOperationsInScopeAndFlushAsSingleBatch() {
+		bufferedSearchService.begin();
+		bufferedSearchService.index("a", "1", fields);
+		bufferedSearchService.index("b", "2", fields);
+		bufferedSearchService.index("c", "3", fields);
+		verify(delegate, never()).index(any(Class.class), anyListOf(Document.class));
+
+		bufferedSearchService.end().complete();
+
+		assertThat(indexedIds(), contains("1", "2", "3"));
+		verify(indexOperation).complete();
+		assertThat(bufferedSearchService.isBuffering(), is(false));
+	}
+
+	@Test
+	public void shouldFlushWhenBufferedOperationIsCompleted() {
+		bufferedSearchService.begin();
+		IndexOperation operation = bufferedSearchService.index("a", "1", fields);
+		bufferedSearchService.index("b", "2", fields);
+
+		operation.complete();
+
+		verify(delegate, times(1)).index(eq(String.class), anyListOf(Document.class));
+		verify(indexOperation).complete();
+		assertThat(bufferedSearchService.isBuffering(), is(true));
+		bufferedSearchService.end();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void shouldCancelBufferedIndexWhenRemoved() {
+		bufferedSearchService.begin();
+		bufferedSearchService.index("a", "1", fields);
+		bufferedSearchService.index("b", "2", fields);
+		bufferedSearchService.remove(String.class, list("1"));
+		bufferedSearchService.end();
+
+		assertThat(indexedIds(), contains("2"));
+		ArgumentCaptor<Iterable> removed = ArgumentCaptor.forClass(Iterable.class);
+		verify(delegate).remove(eq(String.class), removed.capture());
+		assertThat(removed.getValue().iterator().next(), is((Object) "1"));
+	}
+
+	@Test
+	public void shouldFlushTypeWhenBufferIsFull() {
+		bufferedSearchService.begin();
+		Map<String, String> objects = new LinkedHashMap<String, String>();
+		for (int i = 0; i < GoogleSearchService.MaxDocumentsPerRequest + 1; i++) {
+			objects.put(String.valueOf(i), "object" + i);
+		}
+		bufferedSearchService.index(objects, fields);
+		verify(delegate, times(1)).index(eq(String.class), anyListOf(Document.class));
+
+		bufferedSearchService.end();
+		verify(delegate, times(2)).index(eq(String.class), anyListOf(Document.class));
+	}
+
+	@Test
+	public void shouldBufferOperationsWithDifferentFieldsInOneBatch() {
+		bufferedSearchService.begin();
+		bufferedSearchService.index("a", "1", fields);
+		bufferedSearchService.index("b", "2", list("other"));
+		verify(delegate, never()).index(any(Class.class), anyListOf(Document.class));
+
+		bufferedSearchService.end();
+		assertThat(indexedIds(), contains("1", "2"));
+	}
+
+	@Test
+	public void shouldIndexTheObjectAsItWasWhenTheOperationWasBuffered() {
+		Indexed indexed = new Indexed("before");
+		bufferedSearchService.begin();
+		bufferedSearchService.index(indexed, "1", fields);
+		indexed.setName("after");
+		bufferedSearchService.end();
+
+		List<Document> documents = indexedDocuments();
+		assertThat(documents.size(), is(1));
+		assertThat(documents.get(0).getOnlyField("name").getText(), is("before"));
+	}
+
+	@Test
+	public void shouldFlushTypeBeforeSearching() {
+		bufferedSearchService.begin();
+		bufferedSearchService.index("a", "1", fields);
+		bufferedSearchService.search(String.class);
+
+		verify(delegate).index(eq(String.class), anyListOf(Document.class));
+		verify(delegate).search(String.class);
+		bufferedSearchService.end();
+	}
+
+	@Test
+	public void shouldDiscardBufferedOperationsOnRemoveAll() {
+		bufferedSearchService.begin();
+		IndexOperation operation = bufferedSearchService.index("a", "1", fields);
+		bufferedSearchService.removeAll(String.class);
+		operation.complete();
+		bufferedSearchService.end();
+
+		verify(delegate).removeAll(String.class);
+		verify(delegate, never()).index(any(Class.class), anyListOf(Document.class));
+	}
+
+	@Test
+	public void shouldReturnEmptyOperationWhenFlushingOutsideOfScope() {
+		bufferedSearchService.flush().complete();
+		verifyZeroInteractions(delegate);
+	}
+
+	@Test
+	public void shouldSendStaleBufferedOperationsWhenANewScopeBegins() {
+		bufferedSearchService.begin();
+		bufferedSearchService.index("a", "1", fields);
+
+		bufferedSearchService.begin();
+		assertThat(indexedIds(), contains("1"));
+		assertThat(bufferedSearchService.isBuffering(), is(true));
+
+		bufferedSearchService.end();
+		verify(delegate, times(1)).index(any(Class.class), anyListOf(Document.class));
+	}
+
+	@Test
+	public void shouldEndScopeWhenWorkRunInScopeFails() throws Exception {
+		try {
+			bufferedSearchService.run(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					bufferedSearchService.index("a", "1", fields);
+					throw new IllegalStateException("failed");
+				}
+			});
+			fail("Expected exception");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("failed"));
+		}
+
+		assertThat(bufferedSearchService.isBuffering(), is(false));
+		assertThat(indexedIds(), contains("1"));
+	}
+
+	@Test
+	public void shouldReturnResultOfWorkRunInScope() throws Exception {
+		String result = bufferedSearchService.run(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				assertThat(bufferedSearchService.isBuffering(), is(true));
+				return "result";
+			}
+		});
+
+		assertThat(result, is("result"));
+		assertThat(bufferedSearchService.isBuffering(), is(false));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private List<Document> indexedDocuments() {
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(delegate, atLeastOnce()).index(any(Class.class), captor.capture());
+		List<Document> documents = new ArrayList<Document>();
+		for (List batch : captor.getAllValues()) {
+			documents.addAll(batch);
+		}
+		return documents;
+	}
+
+	private List<String> indexedIds() {
+		List<String> ids = new ArrayList<String>();
+		for (Document document : indexedDocuments()) {
+			ids.add(document.getId());
+		}
+		return ids;
+	}
+
+	public static class Indexed {
+		private String name;
+
+		public Indexed(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.search.google;
+
+import static com.atomicleopard.expressive.Expressive.list;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.appengine.api.search.Document;
+import com.google.appengine.api.search.Field.FieldType;
+import com.google.appengine.api.search.GeoPoint;
+
+public class DocumentMapperTest {
+	@Test
+	public void shouldMapFieldsByDeclaredType() {
+		DocumentMapper mapper = new DocumentMapper(Mapped.class, list("text", "number", "decimal", "date", "dateTime", "tags", "location", "flag"));
+		Document document = mapper.toDocument("id", new Mapped());
+
+		assertThat(document.getId(), is("id"));
+		assertThat(document.getOnlyField("text").getText(), is("value"));
+		assertThat(document.getOnlyField("number").getNumber(), is(2.0));
+		assertThat(document.getOnlyField("decimal").getNumber(), is(1.5));
+		assertThat(document.getOnlyField("date").getDate(), is(new Date(1000)));
+		assertThat(document.getOnlyField("dateTime").getDate(), is(new Date(2000)));
+		assertThat(document.getOnlyField("tags").getText(), is("one two"));
+		assertThat(document.getOnlyField("location").getGeoPoint().getLatitude(), is(1.0));
+		assertThat(document.getOnlyField("location").getGeoPoint().getLongitude(), is(2.0));
+		assertThat(document.getOnlyField("flag").getText(), is("true"));
+	}
+
+	@Test
+	public void shouldMapFieldsByValueTypeWhenDeclaredTypeIsNotSpecific() {
+		DocumentMapper mapper = new DocumentMapper(Mapped.class, list("object"));
+
+		assertThat(mapper.toDocument("1", new Mapped(3)).getOnlyField("object").getType(), is(FieldType.NUMBER));
+		assertThat(mapper.toDocument("2", new Mapped("three")).getOnlyField("object").getType(), is(FieldType.TEXT));
+		assertThat(mapper.toDocument("3", new Mapped(new Date(3))).getOnlyField("object").getType(), is(FieldType.DATE));
+	}
+
+	@Test
+	public void shouldPreferGetterOverField() {
+		DocumentMapper mapper = new DocumentMapper(Mapped.class, list("derived"));
+		assertThat(mapper.toDocument("id", new Mapped()).getOnlyField("derived").getText(), is("from getter"));
+	}
+
+	@Test
+	public void shouldReadInheritedFields() {
+		DocumentMapper mapper = new DocumentMapper(SubMapped.class, list("text", "extra"));
+		Document document = mapper.toDocument("id", new SubMapped());
+		assertThat(document.getOnlyField("text").getText(), is("value"));
+		assertThat(document.getOnlyField("extra").getText(), is("extra"));
+	}
+
+	@Test
+	public void shouldMapNestedFields() {
+		DocumentMapper mapper = new DocumentMapper(SubMapped.class, list("child.text"));
+		Document document = mapper.toDocument("id", new SubMapped());
+		assertThat(document.getOnlyField(SearchRequest.encodeFieldName("child.text")).getText(), is("value"));
+	}
+
+	@Test
+	public void shouldOmitNullAndUnknownFields() {
+		DocumentMapper mapper = new DocumentMapper(Mapped.class, list("object", "unknown"));
+		Document document = mapper.toDocument("id", new Mapped());
+		assertThat(document.getFieldNames().isEmpty(), is(true));
+	}
+
+	@Test
+	public void shouldOmitFieldWhenGetterThrows() {
+		DocumentMapper mapper = new DocumentMapper(Mapped.class, list("failing"));
+		assertThat(mapper.toDocument("id", new Mapped()).getFieldNames().isEmpty(), is(true));
+	}
+
+	static class Mapped {
+		private String text = "value";
+		private int number = 2;
+		private BigDecimal decimal = new BigDecimal("1.5");
+		private Date date = new Date(1000);
+		private DateTime dateTime = new DateTime(2000);
+		private List<String> tags = list("one", "two");
+		private GeoPoint location = new GeoPoint(1, 2);
+		private boolean flag = true;
+		private Object object;
+		private String derived = "from field";
+
+		public Mapped() {
+		}
+
+		public Mapped(Object object) {
+			this.object = object;
+		}
+
+		public String getDerived() {
+			return "from getter";
+		}
+
+		public String getFailing() {
+			throw new IllegalStateException("expected");
+		}
+	}
+
+	static class SubMapped extends Mapped {
+		private String extra = "extra";
+		private Mapped child = new Mapped();
+
+		public Mapped getChild() {
+			return child;
+		}
+	}
+}
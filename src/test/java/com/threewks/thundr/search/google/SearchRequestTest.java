@@ -45,6 +45,14 @@ public class SearchRequestTest {
 		assertThat(searchRequest.offset(), is(15));
 	}
 
+	@Test
+	public void shouldSetCursor() {
+		assertThat(searchRequest.isCursorPaging(), is(false));
+		searchRequest.cursor("cursor");
+		assertThat(searchRequest.cursor(), is("cursor"));
+		assertThat(searchRequest.isCursorPaging(), is(true));
+	}
+
 	@Test
 	public void shouldSetFieldFilter() {
 		searchRequest.field("fieldName").eq("value");
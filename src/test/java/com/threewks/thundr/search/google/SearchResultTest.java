@@ -31,6 +31,7 @@ import java.util.concurrent.Future;
 import static com.google.appengine.api.search.ScoredDocument.newBuilder;
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -84,6 +85,12 @@ public class SearchResultTest {
 		assertThat(this.searchResult.getReturnedRecordCount(), is(1L));
 	}
 
+	@Test
+	public void shouldReturnNullCursorWhenThereAreNoMoreResults() {
+		searchResult = new SearchResult<>(String.class, searchAsync, null);
+		assertThat(this.searchResult.cursor(), is(nullValue()));
+	}
+
 	private class MockResults<T> extends Results<T> {
 		private static final long serialVersionUID = 754439389254135943L;
 		private List<T> results;
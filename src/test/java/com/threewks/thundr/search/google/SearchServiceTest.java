@@ -36,6 +36,8 @@ import java.util.concurrent.Future;
 
 import static com.atomicleopard.expressive.Expressive.list;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Mockito.*;
@@ -157,6 +159,32 @@ public class SearchServiceTest {
 		assertThat(document.get(1).getOnlyField("boolType").getText(), is("false"));
 	}
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void shouldIndexObjectsInBatchesOfTheMaximumDocumentsPerRequest() throws InterruptedException, ExecutionException {
+		Index index = mock(Index.class);
+		Future<PutResponse> future = mock(Future.class);
+		when(index.putAsync(anyListOf(Document.class))).thenReturn(future);
+		SearchService localSearchService = spySearchService();
+		doReturn(index).when(localSearchService).getIndex(Mockito.any(IndexSpec.class));
+
+		Map<String, Object> objects = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < 450; i++) {
+			objects.put(String.valueOf(i), testType);
+		}
+
+		IndexOperation indexOperation = searchService.index(objects, list("intType"));
+
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(index, times(3)).putAsync(captor.capture());
+		assertThat(captor.getAllValues().get(0).size(), is(200));
+		assertThat(captor.getAllValues().get(1).size(), is(200));
+		assertThat(captor.getAllValues().get(2).size(), is(50));
+
+		indexOperation.complete();
+		verify(future, times(3)).get();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void shouldRemoveFromIndex() throws InterruptedException, ExecutionException {
@@ -175,6 +203,32 @@ public class SearchServiceTest {
 		verify(future).get();
 	}
 
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Test
+	public void shouldRemoveFromIndexInBatchesOfTheMaximumDocumentsPerRequest() throws InterruptedException, ExecutionException {
+		Index index = mock(Index.class);
+		Future<Void> future = mock(Future.class);
+		when(index.deleteAsync(anyListOf(String.class))).thenReturn(future);
+		SearchService localSearchService = spySearchService();
+		doReturn(index).when(localSearchService).getIndex(Mockito.any(IndexSpec.class));
+
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 450; i++) {
+			ids.add(String.valueOf(i));
+		}
+
+		IndexOperation indexOperation = searchService.remove(TestType.class, ids);
+
+		ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+		verify(index, times(3)).deleteAsync(captor.capture());
+		assertThat(captor.getAllValues().get(0).size(), is(200));
+		assertThat(captor.getAllValues().get(1).size(), is(200));
+		assertThat(captor.getAllValues().get(2).size(), is(50));
+
+		indexOperation.complete();
+		verify(future, times(3)).get();
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void shouldRemoveAllFromIndex() throws InterruptedException, ExecutionException {
@@ -197,6 +251,101 @@ public class SearchServiceTest {
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldSearchForIdsOnly() {
+		Index index = mock(Index.class);
+		Future<Results<ScoredDocument>> future = mock(Future.class);
+		when(index.searchAsync(Mockito.any(Query.class))).thenReturn(future);
+		SearchService localSearchService = spySearchService();
+		doReturn(index).when(localSearchService).getIndex(Mockito.any(IndexSpec.class));
+
+		searchService.search(TestType.class).field("stringType").eq("String").searchIds();
+		searchService.search(TestType.class).field("stringType").eq("String").search();
+
+		ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+		verify(index, times(2)).searchAsync(captor.capture());
+		assertThat(captor.getAllValues().get(0).getOptions().isReturningIdsOnly(), is(true));
+		assertThat(captor.getAllValues().get(1).getOptions().isReturningIdsOnly(), is(false));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void shouldCountWithoutFetchingDocuments() throws InterruptedException, ExecutionException {
+		Index index = mock(Index.class);
+		Future<Results<ScoredDocument>> future = mock(Future.class);
+		Results<ScoredDocument> results = mock(Results.class);
+		when(results.getNumberFound()).thenReturn(1234L);
+		when(future.get()).thenReturn(results);
+		when(index.searchAsync(Mockito.any(Query.class))).thenReturn(future);
+		SearchService localSearchService = spySearchService();
+		doReturn(index).when(localSearchService).getIndex(Mockito.any(IndexSpec.class));
+
+		long count = searchService.search(TestType.class).field("stringType").eq("String").limit(100).count(5000);
+
+		assertThat(count, is(1234L));
+		ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+		verify(index).searchAsync(captor.capture());
+		QueryOptions options = captor.getValue().getOptions();
+		assertThat(options.isReturningIdsOnly(), is(true));
+		assertThat(options.getLimit(), is(1));
+		assertThat(options.getNumberFoundAccuracy(), is(5000));
+	}
+
+	@Test
+	public void shouldStreamEveryPageOfSearchResults() {
+		Map<String, Object> objects = new LinkedHashMap<String, Object>();
+		for (int i = 1; i <= 5; i++) {
+			objects.put(String.valueOf(i), new TestType(i, 2L, new BigDecimal("1.23"), "String", new Date(1), true));
+		}
+		searchService.index(objects, list("intType", "stringType")).complete();
+
+		Iterator<SearchResult<TestType>> pages = searchService.search(TestType.class).field("stringType").is("String").limit(2).streamIds();
+		List<String> ids = new ArrayList<String>();
+		int pageCount = 0;
+		while (pages.hasNext()) {
+			ids.addAll(pages.next().getSearchResultIds());
+			pageCount++;
+		}
+
+		assertThat(pageCount, is(3));
+		assertThat(ids.size(), is(5));
+		assertThat(new HashSet<String>(ids), is(objects.keySet()));
+	}
+
+	@Test
+	public void shouldNotModifySearchRequestWhenStreaming() {
+		Map<String, Object> objects = new LinkedHashMap<String, Object>();
+		for (int i = 1; i <= 3; i++) {
+			objects.put(String.valueOf(i), new TestType(i, 2L, new BigDecimal("1.23"), "String", new Date(1), true));
+		}
+		searchService.index(objects, list("intType", "stringType")).complete();
+
+		SearchRequest<TestType> request = searchService.search(TestType.class).field("stringType").is("String");
+		Iterator<SearchResult<TestType>> pages = request.streamIds();
+		while (pages.hasNext()) {
+			pages.next();
+		}
+
+		assertThat(request.limit(), is(nullValue()));
+		assertThat(request.cursor(), is(nullValue()));
+		assertThat(request.isCursorPaging(), is(false));
+	}
+
+	@Test
+	public void shouldCacheIndexForEachType() {
+		SearchService localSearchService = spySearchService();
+
+		Index index = searchService.getIndex(TestType.class);
+		assertThat(searchService.getIndex(TestType.class), is(sameInstance(index)));
+		assertThat(index.getName(), is("com-threewks-thundr-search-google-SearchServiceTest$TestType"));
+
+		Index otherIndex = searchService.getIndex(String.class);
+		assertThat(otherIndex.getName(), is("java-lang-String"));
+
+		verify(localSearchService, times(2)).getIndex(Mockito.any(IndexSpec.class));
+	}
+
 	@Test
 	public void shouldIndexWithCustomIndex() {
 		final Index customIndex = mock(Index.class);